@@ -0,0 +1,269 @@
+package ca.concordia.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+// One client connection driven by two threads: the sender issues requests on schedule, without
+// waiting for replies beyond the pipeline depth, and the receiver matches replies to requests in
+// order (the server answers untagged text commands and binary frames in the order sent).
+//
+// Open loop (a rate): every request has an intended start on the arrival schedule, and its
+// response time runs from there, not from when it was actually sent. A server that stalls makes
+// the sender fall behind schedule, and the requests that should have gone out meanwhile are
+// charged the time they spent waiting, which is what a real client arriving then would have
+// seen; timing from the send instead hides the stall (coordinated omission). The service time,
+// from the actual send, is kept too, and the gap between the two is the queueing the schedule
+// exposed. Closed loop (no rate): the next request goes out as soon as the pipeline has room,
+// so the two times are the same and only describe the server at the load it let itself take.
+public class Connection implements Closeable {
+
+    public static final int HANDSHAKE = 0xFB; // first byte of a binary-protocol connection
+    private static final byte OK = 0;
+    private static final long SPIN_NANOS = 100_000; // closer to a deadline than this, spin rather than park
+
+    static final class Request {
+        final Operation operation;
+        final String name;
+        final byte[] payload; // null: none
+        long intendedStart;
+        long sentAt;
+
+        Request(Operation operation, String name, byte[] payload) {
+            this.operation = operation;
+            this.name = name;
+            this.payload = payload;
+        }
+    }
+
+    private static final Request END = new Request(null, null, null); // the sender is done
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final boolean text;
+    private final byte[] skipBuffer = new byte[64 * 1024];
+
+    private final BlockingQueue<Request> sent = new LinkedBlockingQueue<>();
+    private final Map<Operation, LatencyHistogram> responseTimes = new EnumMap<>(Operation.class);
+    private final Map<Operation, LatencyHistogram> serviceTimes = new EnumMap<>(Operation.class);
+    private final Map<Operation, long[]> errors = new EnumMap<>(Operation.class);
+    private volatile IOException failure;
+    private long lastReply; // System.nanoTime() of the last recorded reply, read after join()
+    private long unsent; // requests due before the end that were never sent, read after join()
+    private Thread sender;
+    private Thread receiver;
+
+    public Connection(String host, int port, boolean text) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        this.text = text;
+        if (!text) {
+            out.write(HANDSHAKE);
+        }
+        for (Operation operation : Operation.values()) {
+            responseTimes.put(operation, new LatencyHistogram());
+            serviceTimes.put(operation, new LatencyHistogram());
+            errors.put(operation, new long[1]);
+        }
+    }
+
+    // Sends one request and waits for its reply: true when it succeeded
+    public boolean call(Operation operation, String name, byte[] payload) throws IOException {
+        send(new Request(operation, name, payload));
+        return receive();
+    }
+
+    // Starts sending from start until end (System.nanoTime() readings), at rate requests per second
+    // with uniform or exponential (Poisson) gaps, or as fast as the pipeline allows when rate is 0.
+    // Only requests due from measureFrom on are recorded.
+    public void start(Workload workload, long start, long end, long measureFrom, double rate, boolean poisson,
+                      int pipeline, long seed) {
+        Semaphore window = new Semaphore(pipeline);
+        sender = new Thread(() -> {
+            Random random = new Random(seed);
+            double interval = rate > 0 ? 1e9 / rate : 0;
+            long due = start;
+            try {
+                while (failure == null) {
+                    long intended;
+                    if (rate > 0) {
+                        sleepUntil(due);
+                        intended = due;
+                        due += (long) (poisson ? -Math.log(1 - random.nextDouble()) * interval : interval);
+                    } else {
+                        intended = System.nanoTime();
+                    }
+                    if (intended >= end) {
+                        break;
+                    }
+                    if (rate > 0 && System.nanoTime() >= end) {
+                        // Too far behind to catch up: the rest of the schedule is counted, not sent
+                        while (intended < end) {
+                            unsent++;
+                            intended = due;
+                            due += (long) (poisson ? -Math.log(1 - random.nextDouble()) * interval : interval);
+                        }
+                        break;
+                    }
+                    window.acquireUninterruptibly();
+                    Request request = workload.next(random);
+                    request.intendedStart = rate > 0 ? intended : System.nanoTime();
+                    request.sentAt = System.nanoTime();
+                    sent.add(request); // before the bytes, so the receiver never sees a reply first
+                    send(request);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            sent.add(END);
+        }, "load-send-" + socket.getLocalPort());
+        receiver = new Thread(() -> {
+            try {
+                Request request;
+                while ((request = sent.take()) != END) {
+                    boolean ok = receive();
+                    long done = System.nanoTime();
+                    window.release();
+                    if (request.intendedStart >= measureFrom) {
+                        lastReply = done;
+                        responseTimes.get(request.operation).record(done - request.intendedStart);
+                        serviceTimes.get(request.operation).record(done - request.sentAt);
+                        if (!ok) {
+                            errors.get(request.operation)[0]++;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+                window.release(pipeline); // unblock the sender, whose next write then fails too
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "load-receive-" + socket.getLocalPort());
+        sender.start();
+        receiver.start();
+    }
+
+    // Waits until every request sent has been answered, or the connection has failed
+    public void join() throws InterruptedException {
+        sender.join();
+        receiver.join();
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void send(Request request) throws IOException {
+        if (text) {
+            out.write(request.operation.name().getBytes(StandardCharsets.US_ASCII));
+            if (!request.name.isEmpty()) {
+                out.write(' ');
+                out.write(request.name.getBytes(StandardCharsets.UTF_8));
+            }
+            if (request.payload != null) {
+                out.write(' ');
+                out.write(request.payload);
+            }
+            out.write('\n');
+        } else {
+            byte[] name = request.name.getBytes(StandardCharsets.UTF_8);
+            int length = request.payload == null ? 0 : request.payload.length;
+            out.writeByte(request.operation.opcode);
+            out.writeShort(name.length);
+            out.writeInt(length);
+            out.write(name);
+            if (length > 0) {
+                out.write(request.payload);
+            }
+        }
+        out.flush();
+    }
+
+    // Reads and discards one reply: true unless it was an error
+    private boolean receive() throws IOException {
+        if (text) {
+            // "SUCCESS: ..." or "ERROR: ...", up to the newline
+            int first = in.read();
+            int b = first;
+            while (b != '\n') {
+                if (b < 0) {
+                    throw new IOException("Server closed the connection.");
+                }
+                b = in.read();
+            }
+            return first == 'S';
+        }
+        byte status = in.readByte();
+        int remaining = in.readInt();
+        while (remaining > 0) {
+            int read = in.read(skipBuffer, 0, Math.min(remaining, skipBuffer.length));
+            if (read < 0) {
+                throw new IOException("Server closed the connection.");
+            }
+            remaining -= read;
+        }
+        return status == OK;
+    }
+
+    public IOException getFailure() {
+        return failure;
+    }
+
+    public long getUnsent() {
+        return unsent;
+    }
+
+    public long getLastReply() {
+        return lastReply;
+    }
+
+    public LatencyHistogram getResponseTimes(Operation operation) {
+        return responseTimes.get(operation);
+    }
+
+    public LatencyHistogram getServiceTimes(Operation operation) {
+        return serviceTimes.get(operation);
+    }
+
+    public long getErrors(Operation operation) {
+        return errors.get(operation)[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
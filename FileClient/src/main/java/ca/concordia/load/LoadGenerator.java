@@ -0,0 +1,207 @@
+package ca.concordia.load;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Drives a running FileServer with a configurable load and reports throughput and latency
+// percentiles per operation. Build with `mvn -f FileClient/pom.xml compile`, then e.g.
+//   java -cp FileClient/target/classes ca.concordia.load.LoadGenerator --rate=2000 --connections=16
+// Optional: --host=<host> --port=<port> --protocol=binary|text --connections=<n> --pipeline=<depth>
+//           --rate=<requests/s, 0 = closed loop> --arrivals=uniform|poisson
+//           --duration=<s> --warmup=<s> --files=<n> --mix=read:80,write:15,list:5
+//           --sizes=<bytes>:<weight>,...  --no-setup
+// The working set (files ld0, ld1, ...) is created and written first unless --no-setup is given;
+// the server image must have room for it and for a second copy of any file being rewritten.
+public class LoadGenerator {
+
+    private String host = "localhost";
+    private int port = 12345;
+    private boolean text = false;
+    private int connections = 8;
+    private int pipeline = 1;
+    private double rate = 0;
+    private boolean poisson = false;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int files = 100;
+    private String mix = "read:80,write:15,list:5";
+    private String sizes = "128:50,4096:40,65536:10";
+    private boolean setup = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) {
+                generator.host = value(arg);
+            } else if (arg.startsWith("--port=")) {
+                generator.port = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--protocol=")) {
+                generator.text = value(arg).equalsIgnoreCase("text");
+            } else if (arg.startsWith("--connections=")) {
+                generator.connections = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--pipeline=")) {
+                generator.pipeline = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--rate=")) {
+                generator.rate = Double.parseDouble(value(arg));
+            } else if (arg.startsWith("--arrivals=")) {
+                generator.poisson = value(arg).equalsIgnoreCase("poisson");
+            } else if (arg.startsWith("--duration=")) {
+                generator.durationSeconds = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--warmup=")) {
+                generator.warmupSeconds = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--files=")) {
+                generator.files = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--mix=")) {
+                generator.mix = value(arg);
+            } else if (arg.startsWith("--sizes=")) {
+                generator.sizes = value(arg);
+            } else if (arg.equals("--no-setup")) {
+                generator.setup = false;
+            } else {
+                System.err.println("Unknown option " + arg);
+                System.exit(2);
+            }
+        }
+        if (generator.connections < 1 || generator.pipeline < 1 || generator.rate < 0 || generator.durationSeconds < 1) {
+            System.err.println("Connections, pipeline and duration must be positive, and the rate not negative.");
+            System.exit(2);
+        }
+        System.exit(generator.run() ? 0 : 1);
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private boolean run() throws IOException, InterruptedException {
+        Workload workload = new Workload(mix, sizes, files, text);
+        if (setup) {
+            createWorkingSet(workload);
+        }
+
+        List<Connection> clients = new ArrayList<>();
+        long measureFrom;
+        long end;
+        try {
+            for (int i = 0; i < connections; i++) {
+                clients.add(new Connection(host, port, text));
+            }
+            System.out.println(describe());
+            double perConnection = rate / connections;
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+            for (int i = 0; i < connections; i++) {
+                // Stagger the uniform schedules so the connections' arrivals interleave
+                long offset = rate > 0 ? (long) (i * 1e9 / rate) : 0;
+                clients.get(i).start(workload, start + offset, end, measureFrom, perConnection, poisson, pipeline, i);
+            }
+            for (Connection client : clients) {
+                client.join();
+            }
+        } finally {
+            for (Connection client : clients) {
+                client.close();
+            }
+        }
+        return report(clients, measureFrom, end);
+    }
+
+    private void createWorkingSet(Workload workload) throws IOException {
+        try (Connection connection = new Connection(host, port, text)) {
+            for (int i = 0; i < workload.getFileCount(); i++) {
+                String name = Workload.fileName(i);
+                connection.call(Operation.CREATE, name, null); // fails harmlessly if it is left from an earlier run
+                if (!connection.call(Operation.WRITE, name, workload.initialContents(i))) {
+                    throw new IOException("Could not write " + name + "; is the server image large enough?");
+                }
+            }
+        }
+    }
+
+    private String describe() {
+        String load = rate > 0
+                ? String.format(Locale.ROOT, "open loop at %.0f requests/s (%s arrivals)", rate, poisson ? "poisson" : "uniform")
+                : "closed loop";
+        return String.format(Locale.ROOT, "%s:%d, %s protocol, %d connections, pipeline %d, %s, %d s after %d s warm-up",
+                host, port, text ? "text" : "binary", connections, pipeline, load, durationSeconds, warmupSeconds);
+    }
+
+    // Prints the results and returns false if any connection failed. Throughput is over the time
+    // until the last reply: a server that falls behind takes longer than scheduled to answer.
+    // Requests never sent are left out of the percentiles, which are then only a lower bound.
+    private boolean report(List<Connection> clients, long measureFrom, long end) {
+        boolean healthy = true;
+        long lastReply = end;
+        long unsent = 0;
+        for (Connection client : clients) {
+            lastReply = Math.max(lastReply, client.getLastReply());
+            unsent += client.getUnsent();
+            if (client.getFailure() != null) {
+                System.out.println("Connection failed: " + client.getFailure().getMessage());
+                healthy = false;
+            }
+        }
+        double seconds = (lastReply - measureFrom) / 1e9;
+        LatencyHistogram allResponses = new LatencyHistogram();
+        LatencyHistogram allServices = new LatencyHistogram();
+        long allErrors = 0;
+        List<String[]> rows = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram responses = new LatencyHistogram();
+            LatencyHistogram services = new LatencyHistogram();
+            long errors = 0;
+            for (Connection client : clients) {
+                responses.add(client.getResponseTimes(operation));
+                services.add(client.getServiceTimes(operation));
+                errors += client.getErrors(operation);
+            }
+            if (responses.getCount() > 0) {
+                rows.add(row(operation.name(), responses, services, errors, seconds));
+            }
+            allResponses.add(responses);
+            allServices.add(services);
+            allErrors += errors;
+        }
+        rows.add(row("ALL", allResponses, allServices, allErrors, seconds));
+
+        System.out.println();
+        System.out.println(rate > 0
+                ? "Response time from each request's scheduled start (corrected for coordinated omission),"
+                + " service time from its actual send, in microseconds:"
+                : "Closed loop: response and service time are both from the actual send, in microseconds:");
+        System.out.printf(Locale.ROOT, "%-6s %10s %10s %8s | %9s %9s %9s %9s | %9s %9s %9s%n", "op", "count",
+                "req/s", "errors", "p50", "p99", "p99.9", "max", "svc p50", "svc p99", "svc p99.9");
+        for (String[] row : rows) {
+            System.out.printf(Locale.ROOT, "%-6s %10s %10s %8s | %9s %9s %9s %9s | %9s %9s %9s%n", (Object[]) row);
+        }
+        double achieved = allResponses.getCount() / seconds;
+        if (rate > 0 && (achieved < rate * 0.95 || unsent > 0)) {
+            System.out.printf(Locale.ROOT, "%nOnly %.0f of the %.0f requests/s scheduled were answered, and %d were"
+                    + " still waiting to be sent at the end: the server cannot sustain this rate.%n", achieved, rate, unsent);
+        }
+        return healthy;
+    }
+
+    private String[] row(String name, LatencyHistogram responses, LatencyHistogram services, long errors, double seconds) {
+        return new String[]{
+                name,
+                Long.toString(responses.getCount()),
+                String.format(Locale.ROOT, "%.1f", responses.getCount() / seconds),
+                Long.toString(errors),
+                micros(responses.getPercentileNanos(50)),
+                micros(responses.getPercentileNanos(99)),
+                micros(responses.getPercentileNanos(99.9)),
+                micros(responses.getMaxNanos()),
+                micros(services.getPercentileNanos(50)),
+                micros(services.getPercentileNanos(99)),
+                micros(services.getPercentileNanos(99.9))};
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,13 @@
+package ca.concordia.load;
+
+// The requests a load run sends, with their binary-protocol opcodes. CREATE only sets up the
+// working set; the rest are what --mix chooses from.
+public enum Operation {
+    CREATE(1), READ(2), WRITE(3), LIST(5);
+
+    final byte opcode;
+
+    Operation(int opcode) {
+        this.opcode = (byte) opcode;
+    }
+}
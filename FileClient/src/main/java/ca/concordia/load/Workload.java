@@ -0,0 +1,118 @@
+package ca.concordia.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// What each request does: the operation is drawn from the weighted mix, the file uniformly from
+// the working set and a write's size from the weighted size distribution. Contents are generated
+// once per size and shared, so drawing a request allocates nothing but the request itself.
+public class Workload {
+
+    public static final String FILE_PREFIX = "ld"; // names must fit the server's 11 characters
+
+    private final Operation[] operations;
+    private final int[] operationWeights;
+    private final int[] sizes;
+    private final int[] sizeWeights;
+    private final byte[][] contents; // by index into sizes
+    private final int files;
+
+    // mix like "read:80,write:15,list:5", sizes like "128:50,4096:40,1048576:10" (bytes:weight);
+    // text contents are letters, since a text WRITE cannot carry newlines or edge whitespace
+    public Workload(String mix, String sizes, int files, boolean text) {
+        if (files < 1) {
+            throw new IllegalArgumentException("At least one file is needed.");
+        }
+        String[][] mixPairs = parse(mix);
+        this.operations = new Operation[mixPairs.length];
+        this.operationWeights = new int[mixPairs.length];
+        for (int i = 0; i < mixPairs.length; i++) {
+            operations[i] = Operation.valueOf(mixPairs[i][0].toUpperCase());
+            if (operations[i] == Operation.CREATE) {
+                throw new IllegalArgumentException("The mix can only read, write and list.");
+            }
+            operationWeights[i] = weight(mixPairs[i][1]);
+        }
+        checkTotal(operationWeights);
+        String[][] sizePairs = parse(sizes);
+        this.sizes = new int[sizePairs.length];
+        this.sizeWeights = new int[sizePairs.length];
+        this.contents = new byte[sizePairs.length][];
+        Random random = new Random(42);
+        for (int i = 0; i < sizePairs.length; i++) {
+            this.sizes[i] = Integer.parseInt(sizePairs[i][0]);
+            if (this.sizes[i] < 1) {
+                throw new IllegalArgumentException("File sizes must be at least 1 byte.");
+            }
+            sizeWeights[i] = weight(sizePairs[i][1]);
+            contents[i] = new byte[this.sizes[i]];
+            if (text) {
+                for (int b = 0; b < contents[i].length; b++) {
+                    contents[i][b] = (byte) ('a' + random.nextInt(26));
+                }
+            } else {
+                random.nextBytes(contents[i]);
+            }
+        }
+        checkTotal(sizeWeights);
+        this.files = files;
+    }
+
+    private static String[][] parse(String spec) {
+        String[] entries = spec.split(",");
+        String[][] pairs = new String[entries.length][];
+        for (int i = 0; i < entries.length; i++) {
+            pairs[i] = entries[i].trim().split(":");
+            if (pairs[i].length != 2) {
+                throw new IllegalArgumentException("Expected name:weight, got '" + entries[i] + "'.");
+            }
+        }
+        return pairs;
+    }
+
+    private static int weight(String value) {
+        int weight = Integer.parseInt(value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weights cannot be negative.");
+        }
+        return weight;
+    }
+
+    private static void checkTotal(int[] weights) {
+        if (Arrays.stream(weights).sum() <= 0) {
+            throw new IllegalArgumentException("At least one weight must be positive.");
+        }
+    }
+
+    private static int pick(int[] weights, Random random) {
+        int total = Arrays.stream(weights).sum();
+        int draw = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            draw -= weights[i];
+            if (draw < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    public int getFileCount() {
+        return files;
+    }
+
+    public static String fileName(int index) {
+        return FILE_PREFIX + index;
+    }
+
+    // Initial contents of file index, so reads find data from the start
+    public byte[] initialContents(int index) {
+        return contents[pick(sizeWeights, new Random(index))];
+    }
+
+    public Connection.Request next(Random random) {
+        Operation operation = operations[pick(operationWeights, random)];
+        String name = operation == Operation.LIST ? "" : fileName(random.nextInt(files));
+        byte[] payload = operation == Operation.WRITE ? contents[pick(sizeWeights, random)] : null;
+        return new Connection.Request(operation, name, payload);
+    }
+}
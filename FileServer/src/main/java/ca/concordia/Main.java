@@ -1,13 +1,76 @@
 package ca.concordia;
 
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.storage.StorageBackend;
+import ca.concordia.logging.LogLevel;
+import ca.concordia.logging.Logger;
 import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerMode;
 
 public class Main {
     public static void main(String[] args) {
         System.out.printf("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        // Optional: --backend=channel|mapped --size=<bytes> --block-size=<bytes> --max-files=<n>
+        //           --no-journal --commit-interval-ms=<ms> --commit-batch-bytes=<bytes>
+        //           --block-cache-bytes=<bytes> --file-cache-bytes=<bytes> --io-scheduler --async-threads=<n>
+        //           --mode=thread_pool|nio|virtual --port=<port> --image=<path> --max-operations=<n>
+        //           --log-level=debug|info|warn|error|off --log-debug-sample=<n>
+        // Geometry options only apply when the image does not exist yet
+        FileSystemConfig config = new FileSystemConfig();
+        long totalSize = 10 * 128;
+        ServerMode mode = ServerMode.THREAD_POOL;
+        int port = 12345;
+        String image = "filesystem.dat";
+        int maxOperations = FileServer.DEFAULT_MAX_OPERATIONS;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--backend=")) {
+                config.setBackend(StorageBackend.valueOf(value.toUpperCase()));
+            } else if (arg.startsWith("--size=")) {
+                totalSize = Long.parseLong(value);
+            } else if (arg.startsWith("--block-size=")) {
+                config.setBlockSize(Integer.parseInt(value));
+            } else if (arg.startsWith("--max-files=")) {
+                config.setMaxFiles(Integer.parseInt(value));
+            } else if (arg.equals("--no-journal")) {
+                config.setJournal(false);
+            } else if (arg.startsWith("--commit-interval-ms=")) {
+                config.setCommitIntervalMillis(Long.parseLong(value));
+            } else if (arg.startsWith("--commit-batch-bytes=")) {
+                config.setCommitBatchBytes(Integer.parseInt(value));
+            } else if (arg.startsWith("--block-cache-bytes=")) {
+                config.setBlockCacheBytes(Long.parseLong(value));
+            } else if (arg.startsWith("--file-cache-bytes=")) {
+                config.setFileCacheBytes(Long.parseLong(value));
+            } else if (arg.equals("--io-scheduler")) {
+                config.setIoScheduler(true);
+            } else if (arg.startsWith("--async-threads=")) {
+                config.setAsyncThreads(Integer.parseInt(value));
+            } else if (arg.startsWith("--mode=")) {
+                mode = ServerMode.valueOf(value.toUpperCase());
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(value);
+            } else if (arg.startsWith("--image=")) {
+                image = value;
+            } else if (arg.startsWith("--max-operations=")) {
+                maxOperations = Integer.parseInt(value);
+            } else if (arg.startsWith("--log-level=")) {
+                Logger.setLevel(LogLevel.valueOf(value.toUpperCase()));
+            } else if (arg.startsWith("--log-debug-sample=")) {
+                Logger.setDebugSampling(Integer.parseInt(value));
+            }
+        }
+
+        FileServer server;
+        try {
+            server = new FileServer(port, image, totalSize, config, mode, maxOperations);
+        } catch (UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
         // Start the file server
         server.start();
     }
-}
\ No newline at end of file
+}
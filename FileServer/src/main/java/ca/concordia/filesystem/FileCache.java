@@ -0,0 +1,79 @@
+package ca.concordia.filesystem;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Whole contents of small, recently read files, keyed by filename and evicted least recently used
+// once the total exceeds a byte budget. Entries are never modified in place: callers get a copy.
+// FileSystemManager fills it under the file's read lock and invalidates it under the write lock,
+// so a cached copy is never older than the file.
+public class FileCache {
+
+    private final long capacityBytes;
+    private final int maxFileBytes;
+    private final LinkedHashMap<String, byte[]> files = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    public FileCache(long capacityBytes, int maxFileBytes) {
+        this.capacityBytes = capacityBytes;
+        this.maxFileBytes = (int) Math.min(maxFileBytes, capacityBytes);
+    }
+
+    // Copy of the cached contents, or null
+    public synchronized byte[] get(String fileName) {
+        byte[] content = files.get(fileName);
+        if (content == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return content.clone();
+    }
+
+    // Copies data.length bytes of the cached contents, from position on, into data: false if not cached
+    public synchronized boolean read(String fileName, long position, byte[] data) {
+        byte[] content = files.get(fileName);
+        if (content == null || position + data.length > content.length) {
+            misses++;
+            return false;
+        }
+        hits++;
+        System.arraycopy(content, (int) position, data, 0, data.length);
+        return true;
+    }
+
+    public synchronized void put(String fileName, byte[] content) {
+        if (content.length > maxFileBytes) {
+            return;
+        }
+        byte[] previous = files.put(fileName, content.clone());
+        usedBytes += content.length - (previous != null ? previous.length : 0);
+        Iterator<Map.Entry<String, byte[]>> eldest = files.entrySet().iterator();
+        while (usedBytes > capacityBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void invalidate(String fileName) {
+        byte[] removed = files.remove(fileName);
+        if (removed != null) {
+            usedBytes -= removed.length;
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,88 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.ExtentList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+// Reader for FileSystemManager.openRead. Each read copies one range under a short read lock;
+// position(long) lets a client resume an interrupted download or fetch any range.
+public class FileReadChannel implements ReadableByteChannel {
+
+    private static final int STAGING_BYTES = 64 * 1024; // copy size for direct buffers
+
+    private final FileSystemManager fs;
+    private final String fileName;
+    final int fileIndex;
+    final long generation; // contents version the channel was opened on
+    private final long size;
+    final ExtentList layout; // physical runs of the file, in file order
+    private long position;
+    private boolean open = true;
+    private byte[] staging;
+
+    FileReadChannel(FileSystemManager fs, String fileName, int fileIndex, long generation, long size, ExtentList layout) {
+        this.fs = fs;
+        this.fileName = fileName;
+        this.fileIndex = fileIndex;
+        this.generation = generation;
+        this.size = size;
+        this.layout = layout;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (position >= size) {
+            return -1;
+        }
+        int n = (int) Math.min(dst.remaining(), size - position);
+        if (dst.hasArray()) {
+            fs.readStreamed(this, position, dst.array(), dst.arrayOffset() + dst.position(), n);
+            dst.position(dst.position() + n);
+        } else {
+            if (staging == null) {
+                staging = new byte[STAGING_BYTES];
+            }
+            n = Math.min(n, staging.length);
+            fs.readStreamed(this, position, staging, 0, n);
+            dst.put(staging, 0, n);
+        }
+        position += n;
+        return n;
+    }
+
+    public synchronized FileReadChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition + ".");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    public synchronized long position() {
+        return position;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,120 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.storage.StorageBackend;
+
+// Optional settings for FileSystemManager. Geometry only applies when a new image is formatted;
+// an existing image is always reopened with the geometry stored in its superblock.
+public class FileSystemConfig {
+
+    private StorageBackend backend = StorageBackend.CHANNEL;
+    private int blockSize = Superblock.DEFAULT_BLOCK_SIZE;
+    private int maxFiles = 0; // 0 = derived from the number of blocks
+    private boolean journal = true; // write-ahead journal with group commit, see Journal
+    private long commitIntervalMillis = 0; // extra time a group commit waits for more operations to join
+    private int commitBatchBytes = 1024 * 1024; // pending journal bytes that start a commit without waiting
+    private long blockCacheBytes = 8 * 1024 * 1024; // data block cache, 0 disables it
+    private long fileCacheBytes = 4 * 1024 * 1024; // whole-file cache for small hot files, 0 disables it
+    private int fileCacheMaxFileBytes = 64 * 1024; // larger files are only cached block by block
+    private boolean ioScheduler = false; // sort and merge concurrent block I/O on one thread, see IoScheduler
+    private int asyncThreads = 8; // threads running the *Async operations
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    public FileSystemConfig setBackend(StorageBackend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public FileSystemConfig setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    public FileSystemConfig setMaxFiles(int maxFiles) {
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    public boolean isJournal() {
+        return journal;
+    }
+
+    public FileSystemConfig setJournal(boolean journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    public FileSystemConfig setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+        return this;
+    }
+
+    public int getCommitBatchBytes() {
+        return commitBatchBytes;
+    }
+
+    public FileSystemConfig setCommitBatchBytes(int commitBatchBytes) {
+        this.commitBatchBytes = commitBatchBytes;
+        return this;
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public FileSystemConfig setBlockCacheBytes(long blockCacheBytes) {
+        this.blockCacheBytes = blockCacheBytes;
+        return this;
+    }
+
+    public long getFileCacheBytes() {
+        return fileCacheBytes;
+    }
+
+    public FileSystemConfig setFileCacheBytes(long fileCacheBytes) {
+        this.fileCacheBytes = fileCacheBytes;
+        return this;
+    }
+
+    public int getFileCacheMaxFileBytes() {
+        return fileCacheMaxFileBytes;
+    }
+
+    public FileSystemConfig setFileCacheMaxFileBytes(int fileCacheMaxFileBytes) {
+        this.fileCacheMaxFileBytes = fileCacheMaxFileBytes;
+        return this;
+    }
+
+    public boolean isIoScheduler() {
+        return ioScheduler;
+    }
+
+    public FileSystemConfig setIoScheduler(boolean ioScheduler) {
+        this.ioScheduler = ioScheduler;
+        return this;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public FileSystemConfig setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+        return this;
+    }
+}
@@ -1,41 +1,106 @@
 package ca.concordia.filesystem;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
+import ca.concordia.filesystem.datastructures.BlockBitmap;
+import ca.concordia.filesystem.datastructures.ExtentList;
 import ca.concordia.filesystem.datastructures.FEntry;
 import ca.concordia.filesystem.datastructures.FNode;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.storage.BlockCache;
+import ca.concordia.filesystem.storage.DiskStorage;
+import ca.concordia.filesystem.storage.IoScheduler;
+import ca.concordia.filesystem.storage.Journal;
+import ca.concordia.filesystem.storage.ScheduledStorage;
+import ca.concordia.filesystem.storage.StorageBackend;
+import ca.concordia.logging.Logger;
+import ca.concordia.metrics.LatencyHistogram;
 public class FileSystemManager {
 
-    private final int MAXFILES = 5;
-    private final int MAXBLOCKS = 10;
+    private static final Logger log = Logger.get(FileSystemManager.class);
+
+    private final int MAXFILES;
+    private final int MAXBLOCKS;
     private  static FileSystemManager instance;
-    private final RandomAccessFile disk;
-     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
+    private final DiskStorage disk; // channel or memory-mapped image, see StorageBackend
+    private final IoScheduler ioScheduler; // behind disk when enabled, otherwise null
+    private final ExecutorService asyncExecutor; // runs the *Async operations, threads started on demand
+    private Journal journal; // null when journaling is off; set once the image is formatted or loaded
+    private boolean closed; // guarded by namespaceLock
     
+    // Lock ordering: file lock -> namespaceLock -> allocatorLock
+    private final ReadWriteLock namespaceLock = new ReentrantReadWriteLock(true); // filename <-> inode binding
+    private final ReadWriteLock[] fileLocks; // striped per-inode locks (contents of a file)
+    private final Object allocatorLock = new Object(); // freeBlocks, freeNodes, dataBlocks and sharedDirtyFNodes
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int METADATA_CHUNK = 64 * 1024; // bytes per metadata table read/write
+    private static final byte EXTENT_LAYOUT = 1; // FEntry flag: data lives in the inode's extent slots
 
-    private static final int BLOCK_SIZE = 128; // Example block size
-    private static final int FENTRY_SIZE = 15; // 11 (filename) + 2 (size) + 2 (firstBlock)
-    private static final int FNODE_SIZE = 4;   // 2 (blockIndex) + 2 (next)
+    private final int BLOCK_SIZE;
+    private final int FENTRY_SIZE;
+    private final int FNODE_SIZE;
 
     private FEntry[] inodeTable; // Array of inodes
     private FNode[] dataBlocks; // Array of data blocks
-    private boolean[] freeBlockList; // Bitmap for free blocks
-
-    private final int metadataBlocks;
-    private final int dataStartBlock;
+    private final BlockBitmap freeBlocks; // data blocks in use, persisted when the image has a bitmap region
+    private final BlockBitmap freeNodes; // FNode slots in use, rebuilt from dataBlocks on load
+    private final BlockCache blockCache; // hot data blocks, null when disabled
+    private final FileCache fileCache; // whole contents of small hot files, null when disabled
+    // FNode slots changed by the calling thread's transaction, written when it commits
+    private final ThreadLocal<BitSet> dirtyFNodes = ThreadLocal.withInitial(BitSet::new);
+    private final BitSet sharedDirtyFNodes = new BitSet(); // changed outside any transaction, written by the next commit
+
+    // Namespace index, guarded by namespaceLock and rebuilt from inodeTable on load
+    private final Map<String, Integer> filesByName = new HashMap<>();
+    private int[] freeInodes; // stack of unnamed inodes, lowest index on top
+    private final long[] generations; // per inode, bumped under the file's write lock whenever its contents change
+    private final FileVersion[] versions; // per inode, what readers pin; replaced under the file's write lock
+    private int freeInodeCount;
     
-    public static synchronized FileSystemManager getInstance(String filename, int totalSize) {
+    private final Superblock superblock; // geometry and on-disk layout
+
+    private final LatencyHistogram lockWait = new LatencyHistogram(); // per file lock acquisition
+    private final LatencyHistogram imageSyncLatency = new LatencyHistogram(); // image syncs when journaling is off
+    private final LongAdder bytesRead = new LongAdder(); // file contents returned or sent to callers
+    private final LongAdder bytesWritten = new LongAdder(); // file contents handed in by callers
+
+    public static synchronized FileSystemManager getInstance(String filename, long totalSize) {
+        return getInstance(filename, totalSize, new FileSystemConfig());
+    }
+
+    public static synchronized FileSystemManager getInstance(String filename, long totalSize, StorageBackend backend) {
+        return getInstance(filename, totalSize, new FileSystemConfig().setBackend(backend));
+    }
+
+    public static synchronized FileSystemManager getInstance(String filename, long totalSize, FileSystemConfig config) {
         if (instance == null) {
           try{
-            instance = new FileSystemManager(filename, totalSize);
+            instance = new FileSystemManager(filename, totalSize, config);
           } catch (IOException e) {
             throw new RuntimeException("Failed to initialize FileSystemManager", e);
         }
@@ -46,115 +111,248 @@ public class FileSystemManager {
     public static synchronized void resetInstance() {
        if (instance != null) {
             try {
-                instance.disk.close(); 
+                instance.closeStorage();
             } catch (IOException e) {
-                System.err.println("Error closing disk file: " + e.getMessage());
+                log.error("Error closing disk file", "error", e.getMessage());
             }
             instance = null;
         }
     }
 
-    public FileSystemManager(String filename, int totalSize) throws IOException {
-        this.disk = new RandomAccessFile(filename, "rw");
+    public FileSystemManager(String filename, long totalSize) throws IOException {
+        this(filename, totalSize, new FileSystemConfig());
+    }
+
+    public FileSystemManager(String filename, long totalSize, StorageBackend backend) throws IOException {
+        this(filename, totalSize, new FileSystemConfig().setBackend(backend));
+    }
+
+    // totalSize is the data capacity in bytes; it only matters when a new image is formatted
+    public FileSystemManager(String filename, long totalSize, FileSystemConfig config) throws IOException {
+        DiskStorage storage = config.getBackend().open(filename);
+        if (config.isIoScheduler()) {
+            ScheduledStorage scheduled = new ScheduledStorage(storage);
+            this.disk = scheduled;
+            this.ioScheduler = scheduled.getScheduler();
+        } else {
+            this.disk = storage;
+            this.ioScheduler = null;
+        }
+        AtomicInteger asyncThread = new AtomicInteger(1);
+        this.asyncExecutor = Executors.newFixedThreadPool(Math.max(1, config.getAsyncThreads()), r -> {
+            Thread thread = new Thread(r, "fs-async-" + asyncThread.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        String journalFile = filename + ".journal";
+        boolean newImage = disk.size() == 0;
+        if (newImage) {
+            Files.deleteIfExists(Paths.get(journalFile)); // left over from an image that no longer exists
+        } else {
+            // Replay operations that committed before a crash but never reached the image
+            int replayed = Journal.recover(journalFile, disk);
+            if (replayed > 0) {
+                log.info("Journal replayed", "transactions", replayed, "image", filename);
+            }
+        }
+        this.superblock = newImage
+                ? Superblock.create(totalSize, config.getBlockSize(), config.getMaxFiles())
+                : readSuperblock();
+
+        this.MAXFILES = superblock.getMaxFiles();
+        this.MAXBLOCKS = superblock.getMaxBlocks();
+        this.BLOCK_SIZE = superblock.getBlockSize();
+        this.FENTRY_SIZE = superblock.getFEntrySize();
+        this.FNODE_SIZE = superblock.getFNodeSize();
+
         this.inodeTable = new FEntry[MAXFILES];
         this.dataBlocks = new FNode[MAXBLOCKS];
-        this.freeBlockList = new boolean[MAXBLOCKS];   
+        this.freeBlocks = new BlockBitmap(MAXBLOCKS);
+        this.freeNodes = new BlockBitmap(MAXBLOCKS);
+        this.freeInodes = new int[MAXFILES];
+        this.generations = new long[MAXFILES];
+        this.versions = new FileVersion[MAXFILES];
+
+        this.fileLocks = new ReadWriteLock[Math.min(MAXFILES, LOCK_STRIPES)];
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new ReentrantReadWriteLock(true);
+        }
         
-        this.metadataBlocks = (int) Math.ceil((double)(MAXFILES * FENTRY_SIZE + MAXBLOCKS * FNODE_SIZE) / BLOCK_SIZE);
-        this.dataStartBlock = metadataBlocks;
+        long cacheBlocks = Math.min(config.getBlockCacheBytes() / BLOCK_SIZE, Math.min(MAXBLOCKS, Integer.MAX_VALUE / BLOCK_SIZE));
+        this.blockCache = cacheBlocks > 0 ? new BlockCache((int) cacheBlocks, BLOCK_SIZE) : null;
+        this.fileCache = config.getFileCacheBytes() > 0
+                ? new FileCache(config.getFileCacheBytes(), config.getFileCacheMaxFileBytes())
+                : null;
 
-        initializeMemoryStructures();
-        // Initialize all blocks as free
-        for (int i = 0; i < MAXBLOCKS; i++) {
-            freeBlockList[i] = true;
-        }
+        initializeMemoryStructures(); // all blocks start free
 
         // Format the file system
-        if (disk.length() == 0) {
+        if (newImage) {
             formatFileSystem();
         } else {    
             // Load existing file system structures from disk
             loadFileSystem();
         }
+        rebuildNamespaceIndex();
+        for (int i = 0; i < MAXFILES; i++) {
+            versions[i] = newVersion(inodeTable[i]);
+        }
+        if (config.isJournal()) {
+            this.journal = new Journal(journalFile, disk, config.getCommitIntervalMillis(), config.getCommitBatchBytes());
+        }
 
     }
+
+    private Superblock readSuperblock() throws IOException {
+        byte[] header = new byte[(int) Math.min(Superblock.ENCODED_SIZE, disk.size())];
+        readAt(0, header, 0, header.length);
+        Superblock existing = Superblock.decode(header);
+        return existing != null ? existing : Superblock.legacy();
+    }
+
     private void initializeMemoryStructures() {
         for (int i = 0; i < MAXFILES; i++) {
-            inodeTable[i] = new FEntry("", (short)0, (short)-1);
+            inodeTable[i] = new FEntry("", 0, -1);
         }
         for (int i = 0; i < MAXBLOCKS; i++) {
-            dataBlocks[i] = new FNode((short)-1);
-            dataBlocks[i].setNext((short)-1);
+            dataBlocks[i] = new FNode(-1);
+            dataBlocks[i].setNext(-1);
         }
     }
 
     private void formatFileSystem() throws IOException {
-       disk.seek(0); // move to the start of the file
         disk.setLength(0); // Clear existing content
-       //FEntry initialization
-       for (int i = 0; i < MAXFILES; i++) {
-        disk.write(new byte[11]); // Assuming each FEntry takes 11 bytes
-        disk.writeShort(0); // filesize
-        disk.writeShort(-1); // firstBlock pointer  
-       }
-
-       //FNode initialization
-       for (int i = 0; i < MAXBLOCKS; i++) {
-        disk.writeShort(-1); // blockIndex
-        disk.writeShort(-1); // next pointer
-       }
-        long current = disk.getFilePointer();
-        long metadataEnd = (long) metadataBlocks * BLOCK_SIZE;
-        if (current < metadataEnd) {
-            disk.write(new byte[(int) (metadataEnd - current)]);
-        }   
-
-         byte[] zeroBlock = new byte[BLOCK_SIZE];
-        for (int i = 0; i < MAXBLOCKS; i++) {
-            disk.write(zeroBlock);
-        }
-        disk.getFD().sync();
+        disk.setLength(superblock.getImageSize()); // Metadata area plus all data blocks, zero filled
+        byte[] header = superblock.encode();
+        writeAt(0, header, 0, header.length);
+        // Empty FEntry and FNode tables from the freshly initialized memory structures
+        writeFEntries(0, MAXFILES);
+        writeFNodes(0, MAXBLOCKS);
+        disk.force();
     }
 
     private void loadFileSystem() throws IOException {
-        disk.seek(0); // move to the start of the file
+        // Older or truncated images may stop before the last data block
+        if (disk.size() < superblock.getImageSize()) {
+            disk.setLength(superblock.getImageSize());
+        }
         // Load FEntry structures
-        for (int i = 0; i < MAXFILES; i++) {
-            byte[] nameBytes = new byte[11];
-            disk.readFully(nameBytes);
-            String filename = new String(nameBytes).trim();
-            short filesize = disk.readShort();
-            short firstBlock = disk.readShort();
-            inodeTable[i] = new FEntry(filename, filesize, firstBlock);
-
+        ByteBuffer chunk = ByteBuffer.allocate(Math.max(METADATA_CHUNK, Math.max(FENTRY_SIZE, FNODE_SIZE)));
+        for (int i = 0; i < MAXFILES; ) {
+            int count = Math.min(MAXFILES - i, chunk.capacity() / FENTRY_SIZE);
+            readAt(superblock.getFEntryOffset(i), chunk.array(), 0, count * FENTRY_SIZE);
+            chunk.clear();
+            for (int k = 0; k < count; k++, i++) {
+                inodeTable[i] = decodeFEntry(chunk, i);
+            }
         }   
 
         // Load FNode structures
+        for (int i = 0; i < MAXBLOCKS; ) {
+            int count = Math.min(MAXBLOCKS - i, chunk.capacity() / FNODE_SIZE);
+            readAt(superblock.getFNodeOffset(i), chunk.array(), 0, count * FNODE_SIZE);
+            chunk.clear();
+            for (int k = 0; k < count; k++, i++) {
+                dataBlocks[i] = decodeFNode(chunk);
+            }
+        }
+
         for (int i = 0; i < MAXBLOCKS; i++) {
-            short blockIndex = disk.readShort();
-            short next = disk.readShort();
-            dataBlocks[i] = new FNode(blockIndex);
-            dataBlocks[i].setNext(next);
+            if (dataBlocks[i].getBlockIndex() >= 0) {
+                freeNodes.markUsed(i);
+            }
         }
 
-        // Reconstruct free block list
-        Arrays.fill(freeBlockList, true); // Assume all blocks are free initially
+        if (superblock.hasBitmap()) {
+            // Load the persisted free-space bitmap
+            int words = freeBlocks.getWordCount();
+            for (int w = 0; w < words; ) {
+                int count = Math.min(words - w, chunk.capacity() / 8);
+                readAt(superblock.getBitmapWordOffset(w), chunk.array(), 0, count * 8);
+                chunk.clear();
+                freeBlocks.decodeWords(w, w + count, chunk);
+                w += count;
+            }
+            freeBlocks.clearDirty();
+            reclaimUnreferencedBlocks();
+            return;
+        }
 
+        // Older images have no bitmap: reconstruct it from the FNode chains
         for (FEntry entry : inodeTable) {
             if (entry.getFirstBlock() != -1 &&entry != null) {
                 int currentBlock = entry.getFirstBlock();
                 while (currentBlock != -1 && currentBlock<dataBlocks.length) {      
                  
                 FNode node = dataBlocks[currentBlock];
-                if (node.getBlockIndex() != -1 &&node != null &&node.getBlockIndex()<freeBlockList.length) {
-                    freeBlockList[node.getBlockIndex()] = false; // Mark block as used
+                if (node.getBlockIndex() != -1 &&node != null &&node.getBlockIndex()<MAXBLOCKS) {
+                    freeBlocks.markUsed(node.getBlockIndex()); // Mark block as used
                 }
                 currentBlock = node !=null ? node.getNext(): -1;
                  }
             }
         }
+        reclaimUnreferencedBlocks();
+
+    }
 
+    // Blocks and FNodes taken by a streaming write or transaction that never finished are referenced
+    // by no FEntry; they are given back here and persisted free with the next commit. The bitmap may
+    // also have been written with frees whose transaction never committed, so referenced blocks are
+    // marked used again.
+    private void reclaimUnreferencedBlocks() {
+        BitSet usedBlocks = new BitSet(MAXBLOCKS);
+        BitSet usedNodes = new BitSet(MAXBLOCKS);
+        for (FEntry entry : inodeTable) {
+            if (entry.isExtentBased()) {
+                ExtentList extents = entry.getExtents();
+                for (int e = 0; e < extents.count(); e++) {
+                    usedBlocks.set(extents.getStart(e), extents.getStart(e) + extents.getLength(e));
+                }
+            }
+            for (int node = entry.getFirstBlock(); node >= 0 && node < MAXBLOCKS && !usedNodes.get(node);
+                 node = dataBlocks[node].getNext()) {
+                usedNodes.set(node);
+                int block = dataBlocks[node].getBlockIndex();
+                if (block >= 0 && block < MAXBLOCKS) {
+                    usedBlocks.set(block);
+                }
+            }
+        }
+        for (int i = 0; i < MAXBLOCKS; i++) {
+            if (!usedNodes.get(i) && dataBlocks[i].getBlockIndex() >= 0) {
+                dataBlocks[i].setBlockIndex(-1);
+                dataBlocks[i].setNext(-1);
+                freeNodes.markFree(i);
+                markFNodeDirty(i);
+            }
+            if (!usedBlocks.get(i) && !freeBlocks.isFree(i)) {
+                freeBlocks.markFree(i);
+            } else if (usedBlocks.get(i) && freeBlocks.isFree(i)) {
+                freeBlocks.markUsed(i);
+            }
+        }
+        synchronized (allocatorLock) {
+            shareDirtyFNodes();
+        }
+    }
 
+    // Rebuilds the filename index and the free inode stack from inodeTable
+    private void rebuildNamespaceIndex() {
+        filesByName.clear();
+        freeInodeCount = 0;
+        for (int i = MAXFILES - 1; i >= 0; i--) {
+            String filename = inodeTable[i].getFilename();
+            if (filename == null || filename.trim().isEmpty()) {
+                freeInodes[freeInodeCount++] = i;
+            }
+        }
+        for (int i = 0; i < MAXFILES; i++) {
+            String filename = inodeTable[i].getFilename();
+            if (filename != null && !filename.trim().isEmpty()) {
+                filesByName.putIfAbsent(filename.trim(), i); // first entry wins, as the old linear scan did
+            }
+        }
     }
 
     public void createFile(String fileName) throws Exception {
@@ -162,181 +360,894 @@ public class FileSystemManager {
         if (fileName.length() > 11) {
             throw new Exception("Filename cannot be longer than 11 characters.");
         }
-        readWriteLock.writeLock().lock();
+        // Only the namespace changes, no file lock is needed
+        namespaceLock.writeLock().lock();
         try {
             // Check if file already exists
-            for (int i = 0; i < MAXFILES; i++) {
-            FEntry entry = inodeTable[i];
-             if (entry != null && entry.getFilename() != null) {
-                if (fileName.equals(entry.getFilename().trim())) {
-                    throw new Exception("File already exists.");
-                }
+            if (findFileIndex(fileName) != -1) {
+                throw new Exception("File already exists.");
             }
-        }
 
-            // Find a free inode
-            int freeInodeIndex = -1;
-            for (int i = 0; i < MAXFILES; i++) {
-                FEntry entry = inodeTable[i];
-                if (entry != null && (entry.getFilename()==null || entry.getFilename().trim().isEmpty()||entry.getFirstBlock()==-1)) {
-                    freeInodeIndex = i;
-                    break;
-                }
-            }
-            if (freeInodeIndex == -1) {
+            // Take a free inode (an unnamed entry; empty files keep their inode)
+            if (freeInodeCount == 0) {
                 throw new Exception("Maximum file limit reached.");
             }
+            int freeInodeIndex = freeInodes[freeInodeCount - 1];
 
             // Create new FEntry
             inodeTable[freeInodeIndex].setFilename(fileName);
-            inodeTable[freeInodeIndex].setFilesize((short)0);
-            inodeTable[freeInodeIndex].setFirstBlock((short)-1);    
-
+            inodeTable[freeInodeIndex].setFilesize(0);
+            inodeTable[freeInodeIndex].setFirstBlock(-1);
+            versions[freeInodeIndex] = newVersion(inodeTable[freeInodeIndex]);
 
-            writeFEntryToDisk(freeInodeIndex);
-            disk.getFD().sync();
+            writeFEntry(freeInodeIndex);
+            freeInodeCount--;
+            filesByName.put(fileName, freeInodeIndex);
 
         } finally {
-        readWriteLock.writeLock().unlock();
+            namespaceLock.writeLock().unlock();
+        }
+        // Commit outside the namespace lock so lookups are not held up by the disk
+        try {
+            commitTransaction();
+        } finally {
+            abortTransaction(); // no-op once committed
         }
-
         
 
     }
 
     public void deleteFile(String fileName) throws Exception {
-       readWriteLock.writeLock().lock();
+       int fileIndex = lockFile(fileName, true);
+       if (fileIndex == -1) {
+            throw new Exception("File not found.");
+       }
        try {
-        int fileIndex = findFileIndex(fileName);
-        if (fileIndex == -1) {  
-            throw new Exception("File not found."); 
-       } 
-
-       FEntry entry = inodeTable[fileIndex];    
+        FEntry entry = inodeTable[fileIndex];
+        invalidateCachedFile(fileName);
+        versions[fileIndex].awaitUnpinned(); // the blocks are cleared below
 
          // Free data blocks    
+        synchronized (allocatorLock) {
+        if (entry.isExtentBased()) {
+            ExtentList extents = entry.getExtents();
+            for (int e = 0; e < extents.count(); e++) {
+                clearBlocks(extents.getStart(e), extents.getLength(e));
+            }
+            freefileBlocks(entry);
+            entry.setExtents(null);
+        }
         int currentBlock = entry.getFirstBlock();
         while (currentBlock != -1 && currentBlock<dataBlocks.length) {
             FNode node =dataBlocks[currentBlock];
             if (node!=null){
-            if (node.getBlockIndex() >= 0&& node.getBlockIndex() < freeBlockList.length) {
+            if (node.getBlockIndex() >= 0&& node.getBlockIndex() < MAXBLOCKS) {
                 long blockOffset = getDataBlockOffset(node.getBlockIndex());
-                disk.seek(blockOffset);
-                disk.write(new byte[BLOCK_SIZE]); // Clear block data   
-                freeBlockList[node.getBlockIndex()] = true; // Mark block as free   
+                writeAt(blockOffset, new byte[BLOCK_SIZE], 0, BLOCK_SIZE); // Clear block data
+                releaseBlock(node.getBlockIndex()); // Mark block as free
 
             }
             
             node.setBlockIndex(-1); 
             int nextBlock = node.getNext();
             node.setNext(-1);
-            writeFNodeToDisk(currentBlock);
+            freeNodes.markFree(currentBlock);
+            markFNodeDirty(currentBlock);
             currentBlock = nextBlock;
             } else {
              currentBlock = -1;
             }
-       }
-        entry.setFilename("");
-        entry.setFilesize((short)0);
-        entry.setFirstBlock((short)-1);
-        writeFEntryToDisk(fileIndex);
-         disk.getFD().sync();
+        }
+        }
+
+        // Unbind the name last so the inode cannot be reused while its blocks are being freed
+        namespaceLock.writeLock().lock();
+        try {
+            generations[fileIndex]++;
+            filesByName.remove(fileName);
+            // Keep the stack ordered so the lowest free index stays on top
+            int slot = freeInodeCount++;
+            while (slot > 0 && freeInodes[slot - 1] < fileIndex) {
+                freeInodes[slot] = freeInodes[slot - 1];
+                slot--;
+            }
+            freeInodes[slot] = fileIndex;
+            entry.setFilename("");
+            entry.setFilesize(0);
+            entry.setFirstBlock(-1);
+            versions[fileIndex] = newVersion(entry);
+            writeFEntry(fileIndex);
+        } finally {
+            namespaceLock.writeLock().unlock();
+        }
+         commitTransaction();
 
        } finally {
-        readWriteLock.writeLock().unlock();
+        abortTransaction(); // no-op once committed
+        fileLock(fileIndex).writeLock().unlock();
        }
 
     }
 
     public void writeFile(String fileName, byte[] data) throws Exception {
-    
-        if (data.length > BLOCK_SIZE * MAXBLOCKS) {
+        writeFile(fileName, data, data.length);
+    }
+
+    // Replaces the contents with the first length bytes of data, which may be a reused buffer:
+    // nothing keeps a reference to it after the call returns. Copy-on-write: the data goes into
+    // fresh blocks with no file lock held, and only the swap of the inode's block pointers runs
+    // under the write lock, so readers keep reading the old contents meanwhile and a crash leaves
+    // either the old or the new file. The old blocks are freed once no reader has them pinned.
+    public void writeFile(String fileName, byte[] data, int length) throws Exception {
+
+        if (length < 0 || length > data.length) {
+            throw new IllegalArgumentException("Invalid length " + length + " for a buffer of " + data.length + " bytes.");
+        }
+        if (length > getMaxFileSize()) {
             throw new Exception("Data size exceeds maximum file size.");
         }   
-        readWriteLock.writeLock().lock();
+        namespaceLock.readLock().lock();
         try {
-            int fileIndex = findFileIndex(fileName);
-            if (fileIndex == -1) {
-            for (int i = 0; i < MAXFILES; i++) {
-                FEntry entry = inodeTable[i];
-                if (entry != null && entry.getFilename() != null) {
-                    System.out.println("  Index " + i + ": '" + entry.getFilename().trim() + "', firstBlock: " + entry.getFirstBlock());
-                }
+            if (findFileIndex(fileName) == -1) {
+                throw new Exception("File not found.");
+            }
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+
+        int requiredBlocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ExtentList extents = null;
+        int firstBlockIndex = -1;
+        synchronized (allocatorLock) {
+            if (freeBlocks.getFreeCount() >= requiredBlocks) {
+                // A few contiguous extents if possible, an FNode chain otherwise
+                extents = superblock.hasExtents() ? allocateExtents(requiredBlocks) : null;
+                firstBlockIndex = extents == null ? allocatedBlocks(requiredBlocks) : -1;
+            }
+        }
+        if (extents == null && firstBlockIndex == -1 && requiredBlocks > 0) {
+            // No room for both versions at once
+            rewriteInPlace(fileName, data, length);
+            return;
+        }
+
+        int fileIndex;
+        try {
+            if (extents != null) {
+                writeContentsToExtents(extents, data, length);
+            } else {
+                writecontentsToBlocks(firstBlockIndex, data, length);
             }
+            if (requiredBlocks > 0) {
+                // The data is durable and on the image before any inode points at it
+                commitTransaction();
+            }
+            fileIndex = lockFile(fileName, true);
+            if (fileIndex == -1) {
                 throw new Exception("File not found.");
             }
+        } catch (Exception e) {
+            abortTransaction();
+            synchronized (allocatorLock) {
+                freeUnreferencedBlocks(extents, firstBlockIndex);
+            }
+            throw e;
+        }
+
+        FileVersion replaced;
+        try {
             FEntry entry = inodeTable[fileIndex];
+            invalidateCachedFile(fileName);
+            entry.setFirstBlock(firstBlockIndex);
+            entry.setExtents(extents);
+            entry.setFilesize(length);
+            writeFEntry(fileIndex);
+            generations[fileIndex]++;
+            replaced = versions[fileIndex];
+            versions[fileIndex] = newVersion(entry);
+        } finally {
+            fileLock(fileIndex).writeLock().unlock();
+        }
+        try {
+            commitTransaction();
+        } finally {
+            abortTransaction(); // no-op once committed
+        }
+        // Only once the new inode is durable may the old blocks be reused
+        retire(replaced);
+        bytesWritten.add(length);
+    }
 
-            int requiredBlocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
-            if (countfreeBlocks() < requiredBlocks) {
-                throw new Exception("Not enough free space.");
-            }
-            short originalFirstBlock = entry.getFirstBlock();
+    // Frees the old blocks before allocating the new ones, all under the file's write lock, for a
+    // rewrite that does not fit next to the current contents
+    private void rewriteInPlace(String fileName, byte[] data, int length) throws Exception {
+        int fileIndex = lockFile(fileName, true);
+        if (fileIndex == -1) {
+            throw new Exception("File not found.");
+        }
+        try {
+            FEntry entry = inodeTable[fileIndex];
+            invalidateCachedFile(fileName);
+            versions[fileIndex].awaitUnpinned(); // its blocks are about to be reused
+
+            int requiredBlocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int firstBlockIndex = -1;
+            ExtentList extents = null;
+            boolean freed = false;
             try {
-            freefileBlocks(entry);
-            // Allocate new blocks
-            int firstBlockIndex = allocatedBlocks(data);
-            if (firstBlockIndex == -1) {
-                throw new Exception("Failed to allocate blocks.");
+                // Only the block bookkeeping is serialized across files; the data I/O below is not
+                synchronized (allocatorLock) {
+                    // The file's own blocks are given back first, so they count as free
+                    if (freeBlocks.getFreeCount() + fileLayout(entry).getBlockCount() < requiredBlocks) {
+                        throw new Exception("Not enough free space.");
+                    }
+                    freefileBlocks(entry);
+                    freed = true;
+                    extents = superblock.hasExtents() ? allocateExtents(requiredBlocks) : null;
+                    firstBlockIndex = extents == null ? allocatedBlocks(requiredBlocks) : -1;
+                    if (extents == null && firstBlockIndex == -1 && requiredBlocks > 0) {
+                        throw new Exception("Failed to allocate blocks.");
+                    }
+                }
+                // Data first, so the FEntry is only written once it points at written blocks
+                if (extents != null) {
+                    writeContentsToExtents(extents, data, length);
+                } else {
+                    writecontentsToBlocks(firstBlockIndex, data, length);
+                }
+                entry.setFirstBlock(firstBlockIndex);
+                entry.setExtents(extents);
+                entry.setFilesize(length);
+                writeFEntry(fileIndex);
+                generations[fileIndex]++;
+                versions[fileIndex] = newVersion(entry);
+                // Held under the file lock: readers must not see the file before its data is applied
+                commitTransaction();
+                bytesWritten.add(length);
+            } catch (Exception e) {
+                if (!freed) {
+                    throw e;
+                }
+                // The old blocks are already given back, so the file is left empty rather than
+                // pointing at them, in the same transaction as the frees
+                synchronized (allocatorLock) {
+                    freeUnreferencedBlocks(extents, firstBlockIndex);
+                }
+                entry.setFirstBlock(-1);
+                entry.setExtents(null);
+                entry.setFilesize(0);
+                generations[fileIndex]++;
+                versions[fileIndex] = newVersion(entry);
+                try {
+                    writeFEntry(fileIndex);
+                    commitTransaction();
+                } catch (IOException emptied) {
+                    e.addSuppressed(emptied);
+                }
+                throw e;
+            }
+        } finally {
+            abortTransaction(); // no-op once committed
+            fileLock(fileIndex).writeLock().unlock();
+        }
+    }
+
+    public byte[] readFile(String fileName) throws Exception {
+        int fileIndex = lockFile(fileName, false);
+        if (fileIndex == -1) {
+            throw new Exception("File not found.");
+        }
+        FileVersion version;
+        try {
+            byte[] cached = fileCache != null ? fileCache.get(fileName) : null;
+            if (cached != null) {
+                bytesRead.add(cached.length);
+                return cached;
+            }
+            version = versions[fileIndex];
+            if (version.size > Integer.MAX_VALUE - 8) {
+                throw new Exception("File is too large to read into memory.");
+            }
+            version.pin();
+        } finally {
+           fileLock(fileIndex).readLock().unlock();
+        }
+        // No lock held: a writer replacing the file meanwhile leaves the pinned blocks alone
+        byte[] data = new byte[(int) version.size];
+        try {
+            readRange(version.layout, 0, data, 0, data.length);
+        } finally {
+            unpin(version);
+        }
+        if (fileCache != null) {
+            cacheFile(fileName, version, data);
+        }
+        bytesRead.add(data.length);
+        return data;
+    }
+
+    // Caches what a reader read, unless the file was changed after it pinned that version
+    private void cacheFile(String fileName, FileVersion version, byte[] data) {
+        int fileIndex = lockFile(fileName, false);
+        if (fileIndex == -1) {
+            return;
+        }
+        try {
+            // Cached contents are filled under the read lock and dropped under the write lock
+            if (versions[fileIndex] == version) {
+                fileCache.put(fileName, data);
             }
+        } finally {
+            fileLock(fileIndex).readLock().unlock();
+        }
+    }
+
+    // Up to length bytes from offset on; fewer at the end of the file. Only the blocks holding the
+    // range are read.
+    public byte[] readFile(String fileName, long offset, int length) throws Exception {
+        if (offset < 0 || length < 0) {
+            throw new Exception("Invalid offset or length.");
+        }
+        int fileIndex = lockFile(fileName, false);
+        if (fileIndex == -1) {
+            throw new Exception("File not found.");
+        }
+        FileVersion version;
+        byte[] data;
+        try {
+            version = versions[fileIndex];
+            data = new byte[(int) Math.max(0, Math.min(length, version.size - offset))];
+            if (fileCache != null && fileCache.read(fileName, Math.min(offset, version.size), data)) {
+                bytesRead.add(data.length);
+                return data;
+            }
+            if (data.length == 0) {
+                return data;
+            }
+            version.pin();
+        } finally {
+            fileLock(fileIndex).readLock().unlock();
+        }
+        try {
+            readRange(version.layout, offset, data, 0, data.length);
+        } finally {
+            unpin(version);
+        }
+        bytesRead.add(data.length);
+        return data;
+    }
+
+    // Writes data at offset, leaving the rest of the file as it is. Only the blocks the range
+    // touches are written; a write past the end grows the file, reading the gap back as zeros.
+    public void writeFile(String fileName, long offset, byte[] data) throws Exception {
+        if (offset < 0) {
+            throw new Exception("Invalid offset.");
+        }
+        updateFile(fileName, offset, data);
+    }
 
-            //Update FEntry
-            entry.setFirstBlock((short)firstBlockIndex);
-            entry.setFilesize((short)data.length);
-            writeFEntryToDisk(fileIndex);
+    // Writes data after the current end of the file, atomically with respect to other writers
+    public void appendFile(String fileName, byte[] data) throws Exception {
+        updateFile(fileName, -1, data);
+    }
 
-            // Write data to blocks
-            writecontentsToBlocks(firstBlockIndex, data);
-            disk.getFD().sync();
+    // offset -1 appends
+    private void updateFile(String fileName, long offset, byte[] data) throws Exception {
+        int fileIndex = lockFile(fileName, true);
+        if (fileIndex == -1) {
+            throw new Exception("File not found.");
+        }
+        try {
+            FEntry entry = inodeTable[fileIndex];
+            long oldSize = entry.getFilesize();
+            long start = offset == -1 ? oldSize : offset;
+            long end = start + data.length;
+            if (end > getMaxFileSize()) {
+                throw new Exception("Data size exceeds maximum file size.");
+            }
+            invalidateCachedFile(fileName);
+            versions[fileIndex].awaitUnpinned(); // its blocks are written in place
+
+            int originalFirstBlock = entry.getFirstBlock();
+            ExtentList originalExtents = entry.getExtents();
+            long originalBlocks;
+            int originalLast;
+            ExtentList layout;
+            synchronized (allocatorLock) {
+                originalBlocks = fileLayout(entry).getBlockCount();
+                originalLast = originalExtents == null ? lastNode(originalFirstBlock) : -1;
+                layout = growFile(entry, (int) ((end + BLOCK_SIZE - 1) / BLOCK_SIZE));
+            }
+            try {
+                if (start > oldSize) {
+                    writeZeros(layout, oldSize, start - oldSize); // the gap may hold an earlier file's data
+                }
+                writeRange(layout, start, data, 0, data.length);
+                entry.setFilesize(Math.max(oldSize, end));
+                writeFEntry(fileIndex);
+                commitTransaction();
+                // Published only once committed: a failed commit leaves readers on the old version
+                generations[fileIndex]++;
+                versions[fileIndex] = newVersion(entry);
+                bytesWritten.add(data.length);
             } catch (Exception e) {
-                // Rollback on failure
+                // Give back what growFile added and forget what was cached from the failed write
+                synchronized (allocatorLock) {
+                    for (long b = originalBlocks; b < layout.getBlockCount(); b++) {
+                        releaseBlock(layout.physicalBlock(b));
+                    }
+                    if (!entry.isExtentBased()) {
+                        int added = originalExtents != null || originalLast == -1
+                                ? entry.getFirstBlock() : dataBlocks[originalLast].getNext();
+                        if (originalLast != -1) {
+                            dataBlocks[originalLast].setNext(-1);
+                            markFNodeDirty(originalLast);
+                        }
+                        releaseNodes(added);
+                    }
+                }
+                if (blockCache != null) {
+                    for (long b = Math.min(start, oldSize) / BLOCK_SIZE; b < Math.min(originalBlocks, (end + BLOCK_SIZE - 1) / BLOCK_SIZE); b++) {
+                        blockCache.invalidate(layout.physicalBlock(b));
+                    }
+                }
                 entry.setFirstBlock(originalFirstBlock);
-                writeFEntryToDisk(fileIndex);
+                entry.setExtents(originalExtents);
+                entry.setFilesize(oldSize);
+                try {
+                    writeFEntry(fileIndex); // only reaches the image without a journal
+                } catch (IOException restore) {
+                    e.addSuppressed(restore);
+                }
                 throw e;
-            }   
-
-            persistMetadata();
+            }
         } finally {
-            readWriteLock.writeLock().unlock();    
+            abortTransaction(); // no-op once committed
+            fileLock(fileIndex).writeLock().unlock();
+        }
+    }
 
+    // Makes sure the file has at least blocks data blocks and returns its layout. New blocks are
+    // only ever added after the existing ones. Caller must hold allocatorLock.
+    private ExtentList growFile(FEntry entry, int blocks) throws Exception {
+        ExtentList layout = fileLayout(entry);
+        int missing = (int) (blocks - layout.getBlockCount());
+        if (missing <= 0) {
+            return layout;
+        }
+        if (freeBlocks.getFreeCount() < missing) {
+            throw new Exception("Not enough free space.");
+        }
+        boolean empty = layout.getBlockCount() == 0;
+        if (entry.isExtentBased() || (empty && superblock.hasExtents())) {
+            ExtentList added = allocateExtents(missing);
+            ExtentList grown = added == null ? null : concat(layout, added);
+            if (grown == null || grown.count() > Superblock.EXTENTS_PER_INODE) {
+                if (added != null) {
+                    for (int e = 0; e < added.count(); e++) {
+                        for (int block = added.getStart(e); block < added.getStart(e) + added.getLength(e); block++) {
+                            freeBlocks.markFree(block);
+                        }
+                    }
+                }
+                return empty ? growChain(entry, missing) : convertToChain(entry, missing);
+            }
+            entry.setFirstBlock(-1);
+            entry.setExtents(grown);
+            return grown;
+        }
+        return growChain(entry, missing);
+    }
+
+    // Links missing new blocks to the end of the file's FNode chain. Caller must hold allocatorLock.
+    private ExtentList growChain(FEntry entry, int missing) throws Exception {
+        int added = allocatedBlocks(missing);
+        if (added == -1) {
+            throw new Exception("Failed to allocate blocks.");
+        }
+        int last = lastNode(entry.getFirstBlock());
+        if (last == -1) {
+            entry.setFirstBlock(added);
+        } else {
+            dataBlocks[last].setNext(added);
+            markFNodeDirty(last);
+        }
+        return chainLayout(entry.getFirstBlock());
+    }
 
+    // Moves an extent-based file onto an FNode chain over the same blocks, then grows that: for when
+    // the grown file would take more extents than an inode holds. The data stays where it is.
+    // Caller must hold allocatorLock.
+    private ExtentList convertToChain(FEntry entry, int missing) throws Exception {
+        ExtentList extents = entry.getExtents();
+        if (freeNodes.getFreeCount() < extents.getBlockCount() + missing) {
+            throw new Exception("Not enough free space.");
+        }
+        int first = -1;
+        int previous = -1;
+        for (int e = 0; e < extents.count(); e++) {
+            for (int block = extents.getStart(e); block < extents.getStart(e) + extents.getLength(e); block++) {
+                int node;
+                if (freeNodes.isFree(block)) {
+                    freeNodes.markUsed(block);
+                    node = block;
+                } else {
+                    node = freeNodes.allocate();
+                }
+                dataBlocks[node].setBlockIndex(block);
+                dataBlocks[node].setNext(-1);
+                markFNodeDirty(node);
+                if (previous == -1) {
+                    first = node;
+                } else {
+                    dataBlocks[previous].setNext(node);
+                }
+                previous = node;
+            }
         }
+        entry.setExtents(null);
+        entry.setFirstBlock(first);
+        return growChain(entry, missing);
+    }
 
+    // Last FNode of the chain starting at firstNode, or -1 for an empty chain. Caller must hold allocatorLock.
+    private int lastNode(int firstNode) {
+        int last = -1;
+        for (int node = firstNode; node >= 0 && node < dataBlocks.length; node = dataBlocks[node].getNext()) {
+            last = node;
+        }
+        return last;
+    }
 
+    // Frees the FNodes of the chain starting at node, but not their blocks. Caller must hold allocatorLock.
+    private void releaseNodes(int node) {
+        while (node >= 0 && node < dataBlocks.length) {
+            int next = dataBlocks[node].getNext();
+            dataBlocks[node].setBlockIndex(-1);
+            dataBlocks[node].setNext(-1);
+            freeNodes.markFree(node);
+            markFNodeDirty(node);
+            node = next;
+        }
     }
 
-    public byte[] readFile(String fileName) throws Exception {
-        readWriteLock.readLock().lock();
+    // Extents of a followed by those of b, merging the seam when b continues a on disk
+    private static ExtentList concat(ExtentList a, ExtentList b) {
+        int[] starts = new int[a.count() + b.count()];
+        int[] lengths = new int[starts.length];
+        int count = 0;
+        for (ExtentList list : new ExtentList[]{a, b}) {
+            for (int e = 0; e < list.count(); e++) {
+                if (count > 0 && starts[count - 1] + lengths[count - 1] == list.getStart(e)) {
+                    lengths[count - 1] += list.getLength(e);
+                } else {
+                    starts[count] = list.getStart(e);
+                    lengths[count++] = list.getLength(e);
+                }
+            }
+        }
+        return new ExtentList(starts, lengths, count);
+    }
+
+    // Where a file's blocks are, in file order, whichever layout it uses
+    private ExtentList fileLayout(FEntry entry) {
+        if (entry.isExtentBased()) {
+            return entry.getExtents();
+        }
+        synchronized (allocatorLock) {
+            return chainLayout(entry.getFirstBlock());
+        }
+    }
+
+    // Writes length bytes of data at a file position. Whole blocks are cached as written; partly
+    // written blocks are dropped from the cache rather than read back to complete them.
+    private void writeRange(ExtentList layout, long position, byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            long logicalBlock = position / BLOCK_SIZE;
+            int inBlock = (int) (position % BLOCK_SIZE);
+            int extent = layout.findExtent(logicalBlock);
+            int block = layout.physicalBlock(logicalBlock);
+            long runBytes = (layout.getFirstLogicalBlock(extent) + layout.getLength(extent) - logicalBlock) * BLOCK_SIZE - inBlock;
+            int n = (int) Math.min(length, runBytes);
+            writeAt(getDataBlockOffset(block) + inBlock, data, offset, n);
+            if (blockCache != null) {
+                for (int done = -inBlock; done < n; done += BLOCK_SIZE, block++) {
+                    if (done >= 0 && n - done >= BLOCK_SIZE) {
+                        blockCache.put(block, data, offset + done, BLOCK_SIZE);
+                    } else {
+                        blockCache.invalidate(block);
+                    }
+                }
+            }
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void writeZeros(ExtentList layout, long position, long length) throws IOException {
+        byte[] zeros = new byte[(int) Math.min(length, METADATA_CHUNK)];
+        while (length > 0) {
+            int n = (int) Math.min(length, zeros.length);
+            writeRange(layout, position, zeros, 0, n);
+            position += n;
+            length -= n;
+        }
+    }
+
+    // Sends an extent-based file of at least minSize bytes straight from the image to target with
+    // FileChannel.transferTo, one call per extent, so its contents never pass through the heap.
+    // The version being sent is pinned rather than locked, so a slow receiver holds up no writer;
+    // a rewrite meanwhile goes to other blocks. Returns false, having sent nothing, for smaller or
+    // chained files and when target declines the size.
+    public boolean transferFile(String fileName, long minSize, TransferTarget target) throws Exception {
+        int fileIndex = lockFile(fileName, false);
+        if (fileIndex == -1) {
+            throw new Exception("File not found.");
+        }
+        FileVersion version;
         try {
-            int fileIndex = findFileIndex(fileName);
-            if (fileIndex == -1) {
+            version = versions[fileIndex];
+            if (version.extents == null || version.size < minSize) {
+                return false;
+            }
+            version.pin();
+        } finally {
+            fileLock(fileIndex).readLock().unlock();
+        }
+        try {
+            // Committed writes are applied to the image before their version is installed
+            long remaining = version.size;
+            WritableByteChannel channel = target.begin(remaining);
+            if (channel == null) {
+                return false;
+            }
+            ExtentList extents = version.extents;
+            for (int e = 0; e < extents.count() && remaining > 0; e++) {
+                long position = getDataBlockOffset(extents.getStart(e));
+                long length = Math.min((long) extents.getLength(e) * BLOCK_SIZE, remaining);
+                remaining -= length;
+                while (length > 0) {
+                    long sent = disk.channel().transferTo(position, length, channel);
+                    position += sent;
+                    length -= sent;
+                }
+            }
+            bytesRead.add(version.size);
+            return true;
+        } finally {
+            unpin(version);
+        }
+    }
+
+    // Streams new contents of exactly size bytes into an existing file without holding them in
+    // memory. The data goes into freshly allocated blocks, straight to the image; closing the
+    // channel swaps them in, so readers see the old contents until then, and the old blocks are
+    // freed once no reader has them pinned.
+    // Replacing a file therefore needs free space for both versions while the write is open.
+    public FileWriteChannel openWrite(String fileName, long size) throws Exception {
+        if (size < 0 || size > getMaxFileSize()) {
+            throw new Exception("Data size exceeds maximum file size.");
+        }
+        namespaceLock.readLock().lock();
+        try {
+            if (findFileIndex(fileName) == -1) {
                 throw new Exception("File not found.");
             }
-            FEntry entry = inodeTable[fileIndex];
-            byte[] data = new byte[entry.getFilesize()];
-            int currentBlock = entry.getFirstBlock();
-            int dataOffset = 0;
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+        int requiredBlocks = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        FileWriteChannel write;
+        synchronized (allocatorLock) {
+            if (freeBlocks.getFreeCount() < requiredBlocks) {
+                throw new Exception("Not enough free space.");
+            }
+            ExtentList extents = superblock.hasExtents() ? allocateExtents(requiredBlocks) : null;
+            int firstNode = extents == null ? allocatedBlocks(requiredBlocks) : -1;
+            if (extents == null && firstNode == -1 && requiredBlocks > 0) {
+                throw new Exception("Failed to allocate blocks.");
+            }
+            write = new FileWriteChannel(this, fileName, size, extents, firstNode,
+                    extents != null ? extents : chainLayout(firstNode), BLOCK_SIZE);
+        }
+        if (journal != null) {
+            // Streamed data bypasses the journal: writes logged to these blocks before they were
+            // freed, such as a delete's zeros, must reach the image before it does
+            try {
+                journal.awaitApplied();
+            } catch (IOException e) {
+                discardStreamedWrite(write);
+                throw e;
+            }
+        }
+        return write;
+    }
 
-            while (currentBlock != -1 && dataOffset < data.length && currentBlock<dataBlocks.length) {
-                FNode node = dataBlocks[currentBlock];
-                if(node !=null && node.getBlockIndex()>=0 ) {
-                    long blockOffset = getDataBlockOffset(node.getBlockIndex());
-                    disk.seek(blockOffset); 
-                    int bytesToRead = Math.min(BLOCK_SIZE, data.length - dataOffset);
-                    disk.readFully(data, dataOffset, bytesToRead);
-                    dataOffset += bytesToRead;
+    public OutputStream openOutputStream(String fileName, long size) throws Exception {
+        return Channels.newOutputStream(openWrite(fileName, size));
+    }
+
+    // Reads a file in ranges, each under a short read lock, so it is never held in memory whole.
+    // A read fails if the file is rewritten or deleted after the channel was opened.
+    public FileReadChannel openRead(String fileName) throws Exception {
+        int fileIndex = lockFile(fileName, false);
+        if (fileIndex == -1) {
+            throw new Exception("File not found.");
+        }
+        try {
+            FileVersion version = versions[fileIndex];
+            return new FileReadChannel(this, fileName, fileIndex, generations[fileIndex], version.size, version.layout);
+        } finally {
+            fileLock(fileIndex).readLock().unlock();
+        }
+    }
+
+    public InputStream openInputStream(String fileName) throws Exception {
+        return Channels.newInputStream(openRead(fileName));
+    }
+
+    // Data of a streaming write, written straight to its not yet referenced blocks
+    void writeStreamed(int block, int offsetInBlock, byte[] data, int offset, int length) throws IOException {
+        disk.write(getDataBlockOffset(block) + offsetInBlock, data, offset, length);
+        bytesWritten.add(length);
+    }
+
+    // Swaps the blocks of a completed streaming write in under the file's write lock
+    void finishStreamedWrite(FileWriteChannel write) throws IOException {
+        // The data must be durable before the metadata that points at it, and no older journal
+        // record for its blocks may be replayed over it: a checkpoint sees to both
+        if (journal != null) {
+            journal.checkpoint();
+        } else {
+            disk.force();
+        }
+        int fileIndex = lockFile(write.getFileName(), true);
+        if (fileIndex == -1) {
+            discardStreamedWrite(write);
+            throw new IOException("File not found.");
+        }
+        FileVersion replaced;
+        try {
+            synchronized (allocatorLock) {
+                // The chain was allocated when the write was opened, possibly on another thread
+                for (int node = write.firstNode; node >= 0; node = dataBlocks[node].getNext()) {
+                    markFNodeDirty(node);
                 }
+            }
+            FEntry entry = inodeTable[fileIndex];
+            invalidateCachedFile(write.getFileName());
+            entry.setFirstBlock(write.firstNode);
+            entry.setExtents(write.extents);
+            entry.setFilesize(write.size());
+            writeFEntry(fileIndex);
+            generations[fileIndex]++;
+            replaced = versions[fileIndex];
+            versions[fileIndex] = newVersion(entry);
+        } finally {
+            fileLock(fileIndex).writeLock().unlock();
+        }
+        try {
+            commitTransaction();
+        } finally {
+            abortTransaction(); // no-op once committed
+        }
+        retire(replaced);
+    }
 
-                currentBlock = node !=null ? node.getNext(): -1;
+    // Frees the blocks of a streaming write that was abandoned before it completed
+    void discardStreamedWrite(FileWriteChannel write) throws IOException {
+        try {
+            synchronized (allocatorLock) {
+                freeUnreferencedBlocks(write.extents, write.firstNode);
+            }
+            commitTransaction();
+        } finally {
+            abortTransaction();
+        }
+    }
+
+    // Copies length bytes of a streamed file, from position on, if it has not changed since it was opened
+    void readStreamed(FileReadChannel read, long position, byte[] data, int offset, int length) throws IOException {
+        int fileIndex = lockFile(read.getFileName(), false);
+        if (fileIndex == -1) {
+            throw new IOException("File was deleted while it was being read.");
+        }
+        try {
+            if (fileIndex != read.fileIndex || generations[fileIndex] != read.generation) {
+                throw new IOException("File changed while it was being read.");
             }
-            return data;
+            readRange(read.layout, position, data, offset, length);
+            bytesRead.add(length);
         } finally {
-           readWriteLock.readLock().unlock();
+            fileLock(fileIndex).readLock().unlock();
+        }
+    }
+
+    // Copies length bytes of a file, from position on, out of the blocks described by layout
+    private void readRange(ExtentList layout, long position, byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            long logicalBlock = position / BLOCK_SIZE;
+            int inBlock = (int) (position % BLOCK_SIZE);
+            int extent = layout.findExtent(logicalBlock);
+            int block = layout.physicalBlock(logicalBlock);
+            int n;
+            if (inBlock != 0) {
+                n = Math.min(length, BLOCK_SIZE - inBlock);
+                byte[] head = new byte[inBlock + n];
+                readBlocks(block, head, 0, head.length);
+                System.arraycopy(head, inBlock, data, offset, n);
+            } else {
+                long runBlocks = layout.getFirstLogicalBlock(extent) + layout.getLength(extent) - logicalBlock;
+                n = (int) Math.min(length, runBlocks * BLOCK_SIZE);
+                readBlocks(block, data, offset, n);
+            }
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // The inode's current contents, as readers will pin them
+    private FileVersion newVersion(FEntry entry) {
+        return new FileVersion(entry.getFilesize(), entry.getExtents(), entry.getFirstBlock(), fileLayout(entry));
+    }
+
+    private void unpin(FileVersion version) throws IOException {
+        if (version.unpin()) {
+            reclaimVersion(version);
+        }
+    }
+
+    // Called once the inode no longer points at the version and that change is durable
+    private void retire(FileVersion version) throws IOException {
+        if (version.retire()) {
+            reclaimVersion(version);
         }
     }
 
+    // Runs outside any transaction, so the freed blocks are persisted with the next commit of any
+    // thread; after a crash before that, reclaimUnreferencedBlocks gives them back at mount
+    private void reclaimVersion(FileVersion version) throws IOException {
+        synchronized (allocatorLock) {
+            freeUnreferencedBlocks(version.extents, version.firstNode);
+            shareDirtyFNodes();
+        }
+    }
+
+    // Frees blocks that no FEntry points at. Caller must hold allocatorLock.
+    private void freeUnreferencedBlocks(ExtentList extents, int firstNode) throws IOException {
+        FEntry shadow = new FEntry();
+        shadow.setFirstBlock(firstNode);
+        shadow.setExtents(extents);
+        freefileBlocks(shadow);
+    }
+
+    // Runs of consecutive blocks in an FNode chain, in file order. Caller must hold allocatorLock.
+    private ExtentList chainLayout(int firstNode) {
+        List<int[]> runs = new ArrayList<>();
+        for (int node = firstNode; node >= 0 && node < dataBlocks.length && dataBlocks[node].getBlockIndex() >= 0;
+             node = dataBlocks[node].getNext()) {
+            int block = dataBlocks[node].getBlockIndex();
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[0] + last[1] == block) {
+                last[1]++;
+            } else {
+                runs.add(new int[]{block, 1});
+            }
+        }
+        int[] starts = new int[runs.size()];
+        int[] lengths = new int[runs.size()];
+        for (int i = 0; i < runs.size(); i++) {
+            starts[i] = runs.get(i)[0];
+            lengths[i] = runs.get(i)[1];
+        }
+        return new ExtentList(starts, lengths, runs.size());
+    }
+
     public String[] listFiles() {
-        readWriteLock.readLock().lock();
+        // Names only: never waits on a file lock held by a slow reader or writer
+        namespaceLock.readLock().lock();
         try {
             List<String> fileList = new ArrayList<>();
             for (FEntry entry : inodeTable) {
@@ -346,23 +1257,127 @@ public class FileSystemManager {
             }
             return fileList.toArray(new String[0]);
         } finally {
-            readWriteLock.readLock().unlock();
+            namespaceLock.readLock().unlock();
+        }
+    }
+
+    // Asynchronous forms of the operations above. Each runs on the async threads and completes its
+    // future with the result, or with the exception the blocking call would have thrown, so callers
+    // can keep many requests in flight; with the I/O scheduler on, their block reads and writes
+    // are sorted and merged with each other's before they reach the disk.
+    public CompletableFuture<Void> createAsync(String fileName) {
+        return async(() -> {
+            createFile(fileName);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteAsync(String fileName) {
+        return async(() -> {
+            deleteFile(fileName);
+            return null;
+        });
+    }
+
+    public CompletableFuture<byte[]> readAsync(String fileName) {
+        return async(() -> readFile(fileName));
+    }
+
+    public CompletableFuture<byte[]> readAsync(String fileName, long offset, int length) {
+        return async(() -> readFile(fileName, offset, length));
+    }
+
+    public CompletableFuture<Void> writeAsync(String fileName, byte[] data) {
+        return async(() -> {
+            writeFile(fileName, data);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> writeAsync(String fileName, long offset, byte[] data) {
+        return async(() -> {
+            writeFile(fileName, offset, data);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> appendAsync(String fileName, byte[] data) {
+        return async(() -> {
+            appendFile(fileName, data);
+            return null;
+        });
+    }
+
+    public CompletableFuture<String[]> listAsync() {
+        return async(this::listFiles);
+    }
+
+    private interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    private <T> CompletableFuture<T> async(Operation<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    future.complete(operation.run());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IOException("File system is closed.", e));
+        }
+        return future;
+    }
+
+    // Lock guarding the contents of the file stored in the given inode
+    private ReadWriteLock fileLock(int fileIndex) {
+        return fileLocks[fileIndex % fileLocks.length];
+    }
+
+    // Looks up fileName and returns its inode with the file lock held, or -1 if there is no such file
+    private int lockFile(String fileName, boolean exclusive) {
+        while (true) {
+            int fileIndex;
+            namespaceLock.readLock().lock();
+            try {
+                fileIndex = findFileIndex(fileName);
+            } finally {
+                namespaceLock.readLock().unlock();
+            }
+            if (fileIndex == -1) {
+                return -1;
+            }
+
+            Lock lock = exclusive ? fileLock(fileIndex).writeLock() : fileLock(fileIndex).readLock();
+            long waitStart = System.nanoTime();
+            lock.lock();
+            lockWait.recordSince(waitStart);
+            namespaceLock.readLock().lock();
+            try {
+                if (fileName.equals(inodeTable[fileIndex].getFilename())) {
+                    return fileIndex;
+                }
+            } finally {
+                namespaceLock.readLock().unlock();
+            }
+            // The file was deleted (or the inode reused) while we waited, look it up again
+            lock.unlock();
         }
     }
 
-    private void writecontentsToBlocks(int firstBlockIndex, byte[] data) throws IOException {
+    private void writecontentsToBlocks(int firstBlockIndex, byte[] data, int length) throws IOException {
         int currentBlock = firstBlockIndex;
         int dataOffset = 0;
 
-        while (currentBlock != -1 && dataOffset < data.length && currentBlock<dataBlocks.length) {
+        while (currentBlock != -1 && dataOffset < length && currentBlock<dataBlocks.length) {
             FNode node = dataBlocks[currentBlock];
             if (node != null && node.getBlockIndex()>=0) {
-            long blockOffset = getDataBlockOffset(node.getBlockIndex());
-            disk.seek(blockOffset);
+            int bytesToWrite = Math.min(BLOCK_SIZE, length - dataOffset);
 
-            int bytesToWrite = Math.min(BLOCK_SIZE, data.length - dataOffset);
-           
-            disk.write(data, dataOffset, bytesToWrite);
+            writeBlocks(node.getBlockIndex(), data, dataOffset, bytesToWrite);
             dataOffset += bytesToWrite;
             
         }else {
@@ -370,99 +1385,448 @@ public class FileSystemManager {
         currentBlock = node != null ? node.getNext(): -1;
         }
     }
-    private int allocatedBlocks(byte[] data) throws IOException
-    {
-       int blocksneeded = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
-            List<Integer> allocatedBlocks = new ArrayList<>();
-            List<Integer> blockNodes = new ArrayList<>();
+    // One positional write per extent
+    private void writeContentsToExtents(ExtentList extents, byte[] data, int length) throws IOException {
+        int dataOffset = 0;
+        for (int e = 0; e < extents.count() && dataOffset < length; e++) {
+            int bytesToWrite = (int) Math.min((long) extents.getLength(e) * BLOCK_SIZE, length - dataOffset);
+            writeBlocks(extents.getStart(e), data, dataOffset, bytesToWrite);
+            dataOffset += bytesToWrite;
+        }
+    }
 
-            for (int i = 0; i <MAXBLOCKS && blockNodes.size() < blocksneeded; i++) {
-                if (dataBlocks[i].getBlockIndex()<0 && dataBlocks[i]!=null) {
-                    blockNodes.add(i);
+    // Reads len bytes stored in consecutive blocks from block on. Cached blocks are copied from memory;
+    // each run of misses is one positional read, which then fills the cache.
+    private void readBlocks(int block, byte[] data, int dataOffset, int len) throws IOException {
+        if (blockCache == null) {
+            readAt(getDataBlockOffset(block), data, dataOffset, len);
+            return;
+        }
+        int missBlock = -1;
+        int missOffset = 0;
+        for (int done = 0; done < len; done += BLOCK_SIZE, block++) {
+            int n = Math.min(BLOCK_SIZE, len - done);
+            if (blockCache.read(block, data, dataOffset + done, n)) {
+                if (missBlock != -1) {
+                    fillFromDisk(missBlock, data, missOffset, dataOffset + done - missOffset);
+                    missBlock = -1;
                 }
+            } else if (missBlock == -1) {
+                missBlock = block;
+                missOffset = dataOffset + done;
             }
-                    //find free data block
-            for (int j = 0; j < freeBlockList.length && allocatedBlocks.size() < blocksneeded; j++) {
-                        if (freeBlockList[j]) {
-                            freeBlockList[j] = false; // Mark block as used
-                            allocatedBlocks.add(j);                        
+        }
+        if (missBlock != -1) {
+            fillFromDisk(missBlock, data, missOffset, dataOffset + len - missOffset);
+        }
+    }
+
+    private void fillFromDisk(int block, byte[] data, int dataOffset, int len) throws IOException {
+        readAt(getDataBlockOffset(block), data, dataOffset, len);
+        for (int done = 0; done < len; done += BLOCK_SIZE, block++) {
+            blockCache.put(block, data, dataOffset + done, Math.min(BLOCK_SIZE, len - done));
+        }
+    }
 
+    // Write-through: the cache holds the new contents as soon as they are handed to the journal
+    private void writeBlocks(int block, byte[] data, int dataOffset, int len) throws IOException {
+        writeAt(getDataBlockOffset(block), data, dataOffset, len);
+        if (blockCache != null) {
+            for (int done = 0; done < len; done += BLOCK_SIZE, block++) {
+                blockCache.put(block, data, dataOffset + done, Math.min(BLOCK_SIZE, len - done));
+            }
+        }
+    }
+
+    // Caller must hold the file's write lock, so no reader can cache the old contents again
+    private void invalidateCachedFile(String fileName) {
+        if (fileCache != null) {
+            fileCache.invalidate(fileName);
+        }
+    }
+
+    // Frees a data block and drops its cached contents. Caller must hold allocatorLock.
+    private void releaseBlock(int block) {
+        freeBlocks.markFree(block);
+        if (blockCache != null) {
+            blockCache.invalidate(block);
+        }
+    }
+
+    // Zero fills count blocks starting at start, METADATA_CHUNK bytes per write
+    private void clearBlocks(int start, int count) throws IOException {
+        long offset = getDataBlockOffset(start);
+        long end = getDataBlockOffset(start + count);
+        byte[] zeros = new byte[(int) Math.min(METADATA_CHUNK, end - offset)];
+        while (offset < end) {
+            int len = (int) Math.min(zeros.length, end - offset);
+            writeAt(offset, zeros, 0, len);
+            offset += len;
+        }
+    }
+
+    // Claims blocksneeded data blocks as at most EXTENTS_PER_INODE contiguous runs. Returns null,
+    // leaving the bitmap untouched, if the free space is too fragmented. Caller must hold allocatorLock.
+    private ExtentList allocateExtents(int blocksneeded) {
+        if (blocksneeded == 0 || freeBlocks.getFreeCount() < blocksneeded) {
+            return null;
+        }
+        int[] starts = new int[Superblock.EXTENTS_PER_INODE];
+        int[] lengths = new int[Superblock.EXTENTS_PER_INODE];
+        int count = 0;
+        int remaining = blocksneeded;
+        while (remaining > 0 && count < starts.length) {
+            long run = freeBlocks.allocateRun(remaining);
+            starts[count] = (int) (run >>> 32);
+            lengths[count] = (int) run;
+            remaining -= lengths[count++];
+        }
+        if (remaining > 0) {
+            for (int e = 0; e < count; e++) {
+                for (int block = starts[e]; block < starts[e] + lengths[e]; block++) {
+                    freeBlocks.markFree(block);
                 }
             }
-            if (blockNodes.size() < blocksneeded || allocatedBlocks.size() < blocksneeded) {
-                for (Integer block : allocatedBlocks) {
-                    freeBlockList[block] = true; // Rollback
-                }   
-                return -1; // Not enough free blocks
-            }   
+            return null;
+        }
+        return new ExtentList(starts, lengths, count);
+    }
+
+    // Claims blocksneeded data blocks, in as few contiguous runs as the bitmap allows, and links them
+    // into a new FNode chain. Returns the first FNode index, or -1. Caller must hold allocatorLock.
+    private int allocatedBlocks(int blocksneeded) throws IOException
+    {
+        if (blocksneeded == 0) {
+            return -1; // Empty file, nothing to allocate
+        }
+        if (freeBlocks.getFreeCount() < blocksneeded || freeNodes.getFreeCount() < blocksneeded) {
+            return -1; // Not enough free blocks
+        }
 
-            //Link FNodes
-            for (int idx = 0; idx < blockNodes.size(); idx++) {
-                int nodeIndex = blockNodes.get(idx);
-                FNode node = dataBlocks[nodeIndex];
-                node.setBlockIndex(allocatedBlocks.get(idx).shortValue());
-                short nextPointer = (idx < blockNodes.size() - 1) ? blockNodes.get(idx + 1).shortValue() : -1;
-                node.setNext(nextPointer);
-                writeFNodeToDisk(nodeIndex);
+        int firstNode = -1;
+        int previousNode = -1;
+        int remaining = blocksneeded;
+        while (remaining > 0) {
+            long run = freeBlocks.allocateRun(remaining);
+            int start = (int) (run >>> 32);
+            int length = (int) run;
+            for (int block = start; block < start + length; block++) {
+                // Prefer the FNode slot with the same index so the chain is laid out like the data
+                int nodeIndex;
+                if (freeNodes.isFree(block)) {
+                    freeNodes.markUsed(block);
+                    nodeIndex = block;
+                } else {
+                    nodeIndex = freeNodes.allocate();
+                }
+                dataBlocks[nodeIndex].setBlockIndex(block);
+                dataBlocks[nodeIndex].setNext(-1);
+                if (previousNode == -1) {
+                    firstNode = nodeIndex;
+                } else {
+                    dataBlocks[previousNode].setNext(nodeIndex);
+                    markFNodeDirty(previousNode);
+                }
+                previousNode = nodeIndex;
             }
-            return blockNodes.get(0); // Return first block index
+            remaining -= length;
+        }
+        markFNodeDirty(previousNode);
+        return firstNode; // Return first block index
+    }
+
+    // Writes the bitmap words changed since the last call, one write per contiguous run.
+    // Caller must hold allocatorLock.
+    private void writeDirtyBitmapWords() throws IOException {
+        if (!superblock.hasBitmap()) {
+            freeBlocks.clearDirty();
+            return;
+        }
+        int word = freeBlocks.nextDirtyWord(0);
+        while (word != -1) {
+            int end = word + 1;
+            while (end < freeBlocks.getWordCount() && freeBlocks.isDirty(end) && end - word < METADATA_CHUNK / 8) {
+                end++;
+            }
+            ByteBuffer run = ByteBuffer.allocate((end - word) * 8);
+            freeBlocks.encodeWords(word, end, run);
+            writeAt(superblock.getBitmapWordOffset(word), run.array(), 0, run.capacity());
+            word = freeBlocks.nextDirtyWord(end);
+        }
+        freeBlocks.clearDirty();
     }
-    private void writeFEntryToDisk(int index) throws IOException {
-        long offset = (long) index * FENTRY_SIZE; // filename (11 bytes) + filesize (2 bytes) + firstBlock (2 bytes)
-        FEntry entry = inodeTable[index];
-        disk.seek(offset);
-       String filename = entry.getFilename()!= null ? entry.getFilename() : "";
-       byte[] nameBytes =Arrays.copyOf(filename.getBytes(), 11);
-       disk.write(nameBytes);  
-       disk.writeShort(entry.getFilesize());
-       disk.writeShort(entry.getFirstBlock()); 
 
+    // Writes the FEntry and its extent slots as part of the calling thread's transaction. The caller
+    // holds the lock that serializes changes to the entry, so the encoding is never torn and
+    // successive versions of a slot are logged in the order they were made.
+    private void writeFEntry(int index) throws IOException {
+        writeFEntries(index, index + 1);
+        if (inodeTable[index].isExtentBased()) {
+            writeExtentsToDisk(index);
+        }
+    }
 
+    // Caller must hold allocatorLock
+    private void markFNodeDirty(int index) {
+        dirtyFNodes.get().set(index);
     }
 
-    private void writeFNodeToDisk(int index) throws IOException {
-        long offset = MAXFILES * FENTRY_SIZE + index * FNODE_SIZE; // After FEntry area
-        FNode node = dataBlocks[index];
-        disk.seek(offset);
-        disk.writeShort(node.getBlockIndex());
-        disk.writeShort(node.getNext());
+    // Hands the calling thread's dirty FNodes to the next commit of any thread, for changes made
+    // outside a transaction or rolled back by an aborted one. Caller must hold allocatorLock.
+    private void shareDirtyFNodes() {
+        sharedDirtyFNodes.or(dirtyFNodes.get());
+        dirtyFNodes.remove();
     }
 
-    private int findFileIndex(String fileName) {
-        for (int i = 0; i < MAXFILES; i++) {
-            FEntry entry = inodeTable[i];
-            if (entry != null && entry.getFilename() != null) {
-            String currentFilename = entry.getFilename().trim();
-            
-            if (fileName.equals(currentFilename)) {
-                return i;
+    // Writes the FNode slots changed by the calling thread's transaction, or outside any, and the
+    // bitmap words changed since the last flush. Each contiguous run of slots is one write; clean
+    // slots in between are not bridged, as another open transaction may be changing them.
+    private void flushDirtyMetadata() throws IOException {
+        synchronized (allocatorLock) {
+            BitSet dirty = dirtyFNodes.get();
+            dirty.or(sharedDirtyFNodes);
+            sharedDirtyFNodes.clear();
+            for (int from = dirty.nextSetBit(0); from >= 0; ) {
+                int to = dirty.nextClearBit(from);
+                writeFNodes(from, to);
+                from = dirty.nextSetBit(to);
             }
-
+            dirtyFNodes.remove();
+            writeDirtyBitmapWords();
         }
+    }
+
+    // start block + length per extent; unused slots are zeroed
+    private void writeExtentsToDisk(int index) throws IOException {
+        ExtentList extents = inodeTable[index].getExtents();
+        ByteBuffer slots = ByteBuffer.allocate(Superblock.EXTENTS_PER_INODE * Superblock.EXTENT_SIZE);
+        for (int e = 0; e < extents.count(); e++) {
+            slots.putInt(extents.getStart(e));
+            slots.putInt(extents.getLength(e));
         }
-        return -1; // File not found
-    }   
+        writeAt(superblock.getExtentSlotOffset(index), slots.array(), 0, slots.capacity());
+    }
 
-    private int countfreeBlocks() {
+    private ExtentList readExtentsFromDisk(int index) throws IOException {
+        ByteBuffer slots = ByteBuffer.allocate(Superblock.EXTENTS_PER_INODE * Superblock.EXTENT_SIZE);
+        readAt(superblock.getExtentSlotOffset(index), slots.array(), 0, slots.capacity());
+        int[] starts = new int[Superblock.EXTENTS_PER_INODE];
+        int[] lengths = new int[Superblock.EXTENTS_PER_INODE];
         int count = 0;
-        for (boolean isFree : freeBlockList) {
-            if (isFree) {
-                count++;
+        while (count < Superblock.EXTENTS_PER_INODE) {
+            starts[count] = slots.getInt();
+            lengths[count] = slots.getInt();
+            if (lengths[count] == 0) {
+                break;
+            }
+            count++;
+        }
+        return new ExtentList(starts, lengths, count);
+    }
+
+    // Writes inodeTable[from, to) with one write per METADATA_CHUNK bytes
+    private void writeFEntries(int from, int to) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(Math.min(METADATA_CHUNK, (to - from) * FENTRY_SIZE));
+        while (from < to) {
+            int count = Math.min(to - from, Math.max(1, chunk.capacity() / FENTRY_SIZE));
+            chunk.clear();
+            for (int i = from; i < from + count; i++) {
+                encodeFEntry(inodeTable[i], chunk);
+            }
+            writeAt(superblock.getFEntryOffset(from), chunk.array(), 0, chunk.position());
+            from += count;
+        }
+    }
+
+    // Writes dataBlocks[from, to) with one write per METADATA_CHUNK bytes
+    private void writeFNodes(int from, int to) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(Math.min(METADATA_CHUNK, (to - from) * FNODE_SIZE));
+        while (from < to) {
+            int count = Math.min(to - from, Math.max(1, chunk.capacity() / FNODE_SIZE));
+            chunk.clear();
+            for (int i = from; i < from + count; i++) {
+                encodeFNode(dataBlocks[i], chunk);
             }
+            writeAt(superblock.getFNodeOffset(from), chunk.array(), 0, chunk.position());
+            from += count;
+        }
+    }
+
+    // filename (11 bytes) + layout flags (1 byte) + filesize (8 bytes) + firstBlock (4 bytes),
+    // or filename + 16-bit filesize + 16-bit firstBlock in images older than version 2
+    private void encodeFEntry(FEntry entry, ByteBuffer out) {
+        String filename = entry.getFilename()!= null ? entry.getFilename() : "";
+        out.put(Arrays.copyOf(filename.getBytes(), 11));
+        if (superblock.hasNarrowFEntries()) {
+            out.putShort((short) entry.getFilesize());
+            out.putShort((short) entry.getFirstBlock());
+        } else {
+            out.put(entry.isExtentBased() ? EXTENT_LAYOUT : 0);
+            out.putLong(entry.getFilesize());
+            out.putInt(entry.getFirstBlock());
         }
-        return count;
+    }
+
+    private FEntry decodeFEntry(ByteBuffer in, int index) throws IOException {
+        byte[] nameBytes = new byte[11];
+        in.get(nameBytes);
+        String filename = new String(nameBytes).trim();
+        if (superblock.hasNarrowFEntries()) {
+            short filesize = in.getShort();
+            short firstBlock = in.getShort();
+            return new FEntry(filename, filesize, firstBlock);
+        }
+        byte flags = in.get();
+        long filesize = in.getLong();
+        int firstBlock = in.getInt();
+        FEntry entry = new FEntry(filename, filesize, firstBlock);
+        if ((flags & EXTENT_LAYOUT) != 0 && superblock.hasExtents()) {
+            entry.setExtents(readExtentsFromDisk(index));
+        }
+        return entry;
+    }
+
+    // blockIndex + next: 16-bit in legacy images, 32-bit since the superblock was introduced
+    private void encodeFNode(FNode node, ByteBuffer out) {
+        if (superblock.isLegacy()) {
+            out.putShort((short) node.getBlockIndex());
+            out.putShort((short) node.getNext());
+        } else {
+            out.putInt(node.getBlockIndex());
+            out.putInt(node.getNext());
+        }
+    }
+
+    private FNode decodeFNode(ByteBuffer in) {
+        FNode node = superblock.isLegacy() ? new FNode(in.getShort()) : new FNode(in.getInt());
+        node.setNext(superblock.isLegacy() ? in.getShort() : in.getInt());
+        return node;
+    }
+
+    // Positional reads and writes never share a file pointer, so they are safe to run concurrently
+    private void readAt(long offset, byte[] buffer, int off, int len) throws IOException {
+        disk.read(offset, buffer, off, len);
+    }
+
+    // With a journal the write is logged and reaches the image when the transaction group-commits
+    private void writeAt(long offset, byte[] buffer, int off, int len) throws IOException {
+        if (journal != null) {
+            journal.append(offset, buffer, off, len);
+        } else {
+            disk.write(offset, buffer, off, len);
+        }
+    }
+
+    // Makes the calling thread's writes durable: one shared journal fsync, or a full image sync
+    private void commitTransaction() throws IOException {
+        try {
+            flushDirtyMetadata();
+        } catch (IOException e) {
+            abortTransaction();
+            throw e;
+        }
+        if (journal != null) {
+            journal.commit();
+        } else {
+            long syncStart = System.nanoTime();
+            disk.force();
+            imageSyncLatency.recordSince(syncStart);
+        }
+    }
+
+    // In-memory changes are rolled back by the caller; its FNode slots are left for the next commit
+    private void abortTransaction() {
+        if (dirtyFNodes.get().isEmpty()) {
+            dirtyFNodes.remove();
+        } else {
+            synchronized (allocatorLock) {
+                shareDirtyFNodes();
+            }
+        }
+        if (journal != null) {
+            journal.abort();
+        }
+    }
+
+    // Hit, miss and eviction counters live on the cache; null when the cache is disabled
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    // Null unless the I/O scheduler is enabled
+    public IoScheduler getIoScheduler() {
+        return ioScheduler;
+    }
+
+    public FileCache getFileCache() {
+        return fileCache;
+    }
+
+    // Journal fsyncs so far; each one commits every operation that was waiting for it
+    public long getJournalSyncCount() {
+        return journal != null ? journal.getSyncCount() : 0;
+    }
+
+    // Time callers spent waiting for file locks, one value per acquisition
+    public LatencyHistogram getLockWaitHistogram() {
+        return lockWait;
+    }
+
+    // Journal group-commit fsyncs, or image syncs when journaling is off
+    public LatencyHistogram getSyncLatency() {
+        return journal != null ? journal.getSyncLatency() : imageSyncLatency;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    // Checkpoints the journal, then closes the image
+    private void closeStorage() throws IOException {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } finally {
+            disk.close();
+        }
+    }
+
+    // Caller must hold namespaceLock
+    private int findFileIndex(String fileName) {
+        Integer index = filesByName.get(fileName);
+        return index != null ? index : -1; // -1: File not found
     }
 
     private long getDataBlockOffset(int blockIndex) {
-        return (long) blockIndex * BLOCK_SIZE + (long) dataStartBlock * BLOCK_SIZE;
+        return superblock.getDataBlockOffset(blockIndex);
     }
+
+    // Bounded by the data area, and by the 16-bit FEntry fields of images older than version 2
+    private long getMaxFileSize() {
+        long dataArea = (long) BLOCK_SIZE * MAXBLOCKS;
+        return superblock.hasNarrowFEntries() ? Math.min(dataArea, Short.MAX_VALUE) : dataArea;
+    }
+    // Caller must hold allocatorLock
     private void freefileBlocks(FEntry entry) throws IOException {
+        if (entry.isExtentBased()) {
+            ExtentList extents = entry.getExtents();
+            for (int e = 0; e < extents.count(); e++) {
+                for (int block = extents.getStart(e); block < extents.getStart(e) + extents.getLength(e); block++) {
+                    releaseBlock(block);
+                }
+            }
+        }
         int currentBlock = entry.getFirstBlock();
         while (currentBlock != -1 && currentBlock<dataBlocks.length ) {
             FNode node = dataBlocks[currentBlock];
             if (node != null) {  
-            if (node.getBlockIndex() >=0 && node.getBlockIndex()<freeBlockList.length) {
-                freeBlockList[node.getBlockIndex()] = true; // Mark block as free
+            if (node.getBlockIndex() >=0 && node.getBlockIndex()<MAXBLOCKS) {
+                releaseBlock(node.getBlockIndex()); // Mark block as free
                      // long blockOffset = (long) node.getBlockIndex() * BLOCK_SIZE;
                 // disk.seek(blockOffset);
                 // disk.write(new byte[BLOCK_SIZE]); // Clear block data   
@@ -472,7 +1836,8 @@ public class FileSystemManager {
             node.setBlockIndex((short)-1); 
             int nextBlock = node.getNext(); 
             node.setNext(-1);
-            writeFNodeToDisk(currentBlock); 
+            freeNodes.markFree(currentBlock);
+            markFNodeDirty(currentBlock);
             currentBlock = nextBlock;
     
         } else {
@@ -483,38 +1848,33 @@ public class FileSystemManager {
 
     // Persist metadata and flush buffers
     private void persistMetadata() throws IOException{
-        try {
-            readWriteLock.writeLock().lock();
-            //write all FEntry records
-            for (int i =0; i< MAXFILES; i++){
-                writeFEntryToDisk(i);
-            }
-            //write all FNode records
-            for (int i=0; i< MAXBLOCKS; i++){
-                writeFNodeToDisk(i);
-            }
-            //Flush data
-            disk.getFD().sync();
-    
-        } finally {
-            readWriteLock.writeLock().unlock();
-        }
+        // Only the slots changed since the last commit; everything else is already on disk
+        commitTransaction();
     }
 
 //Persist and close disk without erasing data       
     public void close() throws IOException {
-    readWriteLock.writeLock().lock();
-    IOException rException = null;
+    asyncExecutor.shutdown(); // later *Async calls fail; queued ones run, and fail if they start after the close
+    // Quiesce every file, then the namespace, before the final flush
+    for (ReadWriteLock lock : fileLocks) {
+        lock.writeLock().lock();
+    }
+    namespaceLock.writeLock().lock();
      try {
-         if (disk == null)return;
+         if (disk == null || closed)return; // the server's shutdown hook may close again
+         for (FileVersion version : versions) {
+             version.awaitUnpinned(); // readers of pinned versions hold no lock
+         }
              //Flush OS buffers
              persistMetadata();
-             disk.close();
+             closed = true;
+             closeStorage();
      } finally {
-        readWriteLock.writeLock().unlock();
+        namespaceLock.writeLock().unlock();
+        for (ReadWriteLock lock : fileLocks) {
+            lock.writeLock().unlock();
+        }
      }
     }
 
 }
-
-
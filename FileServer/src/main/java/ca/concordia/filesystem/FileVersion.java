@@ -0,0 +1,58 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.ExtentList;
+
+// One state of a file's contents: its size and the blocks holding it. Readers pin the current
+// version under the file's read lock and read it with no lock held. A copy-on-write rewrite
+// installs a new version and retires this one; its blocks are freed once the last reader unpins.
+final class FileVersion {
+
+    final long size;
+    final ExtentList extents; // the inode's extents, null for a chained file
+    final int firstNode;      // first FNode of a chained file, -1 otherwise
+    final ExtentList layout;  // the blocks in file order, whichever layout the file uses
+
+    private int pins;
+    private boolean retired;
+
+    FileVersion(long size, ExtentList extents, int firstNode, ExtentList layout) {
+        this.size = size;
+        this.extents = extents;
+        this.firstNode = firstNode;
+        this.layout = layout;
+    }
+
+    synchronized void pin() {
+        pins++;
+    }
+
+    // True if the version was retired and this was its last reader, so its blocks can be freed
+    synchronized boolean unpin() {
+        if (--pins == 0) {
+            notifyAll();
+        }
+        return pins == 0 && retired;
+    }
+
+    // True if no reader holds the version, so its blocks can be freed now
+    synchronized boolean retire() {
+        retired = true;
+        return pins == 0;
+    }
+
+    // Waits for the readers holding the version; writers that change its blocks in place call
+    // this under the file's write lock, so no new reader can pin it meanwhile
+    synchronized void awaitUnpinned() {
+        boolean interrupted = false;
+        while (pins > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
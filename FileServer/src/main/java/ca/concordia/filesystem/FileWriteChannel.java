@@ -0,0 +1,109 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.ExtentList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+// Sequential writer for FileSystemManager.openWrite. Bytes go straight to the blocks reserved for
+// the new contents; close() publishes them once exactly size bytes were written, abort() drops them.
+public class FileWriteChannel implements WritableByteChannel {
+
+    private static final int STAGING_BYTES = 64 * 1024; // copy size for direct buffers
+
+    private final FileSystemManager fs;
+    private final String fileName;
+    private final long size;
+    final ExtentList extents; // the new layout as stored in the FEntry, null when chained
+    final int firstNode; // first FNode of the new chain, -1 when extent based
+    private final ExtentList layout; // physical runs of either form, in file order
+    private final int blockSize;
+    private long position;
+    private boolean open = true;
+    private byte[] staging;
+
+    FileWriteChannel(FileSystemManager fs, String fileName, long size, ExtentList extents, int firstNode,
+                     ExtentList layout, int blockSize) {
+        this.fs = fs;
+        this.fileName = fileName;
+        this.size = size;
+        this.extents = extents;
+        this.firstNode = firstNode;
+        this.layout = layout;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (src.remaining() > size - position) {
+            throw new IOException("More than the " + size + " bytes announced for '" + fileName + "'.");
+        }
+        int written = 0;
+        while (src.hasRemaining()) {
+            long logicalBlock = position / blockSize;
+            int inBlock = (int) (position % blockSize);
+            int extent = layout.findExtent(logicalBlock);
+            long runBytes = (layout.getFirstLogicalBlock(extent) + layout.getLength(extent) - logicalBlock) * blockSize - inBlock;
+            int n = (int) Math.min(src.remaining(), runBytes);
+            int block = layout.physicalBlock(logicalBlock);
+            if (src.hasArray()) {
+                fs.writeStreamed(block, inBlock, src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.position() + n);
+            } else {
+                if (staging == null) {
+                    staging = new byte[STAGING_BYTES];
+                }
+                n = Math.min(n, staging.length);
+                src.get(staging, 0, n);
+                fs.writeStreamed(block, inBlock, staging, 0, n);
+            }
+            position += n;
+            written += n;
+        }
+        return written;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    // Publishes the new contents; fails, dropping them, if fewer than size bytes were written
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        if (position != size) {
+            fs.discardStreamedWrite(this);
+            throw new IOException("Only " + position + " of " + size + " bytes were written to '" + fileName + "'.");
+        }
+        fs.finishStreamedWrite(this);
+    }
+
+    // Drops the new contents; the file keeps its old ones
+    public synchronized void abort() throws IOException {
+        if (open) {
+            open = false;
+            fs.discardStreamedWrite(this);
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public synchronized long position() {
+        return position;
+    }
+}
@@ -0,0 +1,11 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+// Receiver of FileSystemManager.transferFile: told the file size first, then sent the contents
+public interface TransferTarget {
+
+    // Called before any contents are sent; returns a blocking channel for them, or null to send nothing
+    WritableByteChannel begin(long size) throws IOException;
+}
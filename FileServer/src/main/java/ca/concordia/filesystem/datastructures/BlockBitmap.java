@@ -0,0 +1,194 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Free-space bitmap packed into long words (bit set = in use) with a cached free count and a
+// next-fit hint. Hands out contiguous runs so large files land sequentially on disk.
+// Not thread safe: callers serialize access (FileSystemManager uses its allocator lock).
+public class BlockBitmap {
+
+    private final long[] words;
+    private final long[] dirtyWords; // one bit per word changed since the last clearDirty()
+    private final int size;
+    private int freeCount;
+    private int hint; // next-fit: search starts where the last allocation ended
+
+    public BlockBitmap(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+        this.dirtyWords = new long[(words.length + 63) >>> 6];
+        this.freeCount = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFreeCount() {
+        return freeCount;
+    }
+
+    public int getWordCount() {
+        return words.length;
+    }
+
+    public boolean isFree(int index) {
+        return (words[index >>> 6] & (1L << index)) == 0;
+    }
+
+    public void markUsed(int index) {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        if ((words[w] & bit) == 0) {
+            words[w] |= bit;
+            freeCount--;
+            markDirty(w);
+        }
+    }
+
+    public void markFree(int index) {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        if ((words[w] & bit) != 0) {
+            words[w] &= ~bit;
+            freeCount++;
+            markDirty(w);
+        }
+    }
+
+    // Claims exactly one block, or returns -1 when full
+    public int allocate() {
+        long run = allocateRun(1);
+        return run < 0 ? -1 : (int) (run >>> 32);
+    }
+
+    // Claims maxLength blocks from the first free run at or after the hint (wrapping around) that is
+    // long enough, or else the longest free run, so fragmentation splits a file as little as possible.
+    // Returns start << 32 | length, or -1 if nothing is free.
+    public long allocateRun(int maxLength) {
+        if (freeCount == 0 || maxLength <= 0) {
+            return -1;
+        }
+        int bestStart = -1;
+        int bestLength = 0;
+        int from = hint;
+        int to = size;
+        while (true) {
+            int start = findFree(from, to);
+            if (start < 0) {
+                if (to == hint) {
+                    break;
+                }
+                from = 0; // wrap around once to the space before the hint
+                to = hint;
+                continue;
+            }
+            int end = findUsed(start, (int) Math.min(size, (long) start + maxLength));
+            if (end - start > bestLength) {
+                bestStart = start;
+                bestLength = end - start;
+                if (bestLength == maxLength) {
+                    break;
+                }
+            }
+            from = end;
+        }
+        int end = bestStart + bestLength;
+        setRange(bestStart, end);
+        hint = end == size ? 0 : end;
+        return ((long) bestStart << 32) | bestLength;
+    }
+
+    // First free index in [from, to), or -1
+    private int findFree(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long free = ~words[w] & (-1L << from);
+        while (true) {
+            if (free != 0) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(free);
+                return index < to ? index : -1;
+            }
+            if (++w > (to - 1) >>> 6) {
+                return -1;
+            }
+            free = ~words[w];
+        }
+    }
+
+    // First used index in [from, to), or to
+    private int findUsed(int from, int to) {
+        int w = from >>> 6;
+        long used = words[w] & (-1L << from);
+        while (true) {
+            if (used != 0) {
+                return Math.min(to, (w << 6) + Long.numberOfTrailingZeros(used));
+            }
+            if (++w > (to - 1) >>> 6) {
+                return to;
+            }
+            used = words[w];
+        }
+    }
+
+    private void setRange(int from, int to) {
+        for (int i = from; i < to; ) {
+            int w = i >>> 6;
+            int bits = Math.min(64 - (i & 63), to - i);
+            long mask = (bits == 64 ? -1L : ((1L << bits) - 1)) << i;
+            words[w] |= mask;
+            markDirty(w);
+            i += bits;
+        }
+        freeCount -= to - from;
+    }
+
+    private void markDirty(int word) {
+        dirtyWords[word >>> 6] |= 1L << word;
+    }
+
+    // First dirty word at or after from, or -1
+    public int nextDirtyWord(int from) {
+        if (from >= words.length) {
+            return -1;
+        }
+        int d = from >>> 6;
+        long bits = dirtyWords[d] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                int word = (d << 6) + Long.numberOfTrailingZeros(bits);
+                return word < words.length ? word : -1;
+            }
+            if (++d >= dirtyWords.length) {
+                return -1;
+            }
+            bits = dirtyWords[d];
+        }
+    }
+
+    public boolean isDirty(int word) {
+        return (dirtyWords[word >>> 6] & (1L << word)) != 0;
+    }
+
+    public void clearDirty() {
+        Arrays.fill(dirtyWords, 0);
+    }
+
+    // Serialized form: 8 bytes per word
+    public void encodeWords(int from, int to, ByteBuffer out) {
+        for (int w = from; w < to; w++) {
+            out.putLong(words[w]);
+        }
+    }
+
+    public void decodeWords(int from, int to, ByteBuffer in) {
+        for (int w = from; w < to; w++) {
+            long word = in.getLong();
+            freeCount += Long.bitCount(words[w]) - Long.bitCount(word);
+            words[w] = word;
+        }
+    }
+}
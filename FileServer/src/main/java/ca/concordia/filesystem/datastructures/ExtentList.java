@@ -0,0 +1,60 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.util.Arrays;
+
+// Immutable list of extents (start block + length runs) describing where a file's data lives.
+// Prefix block counts make locating any file offset a binary search over the extents.
+public class ExtentList {
+
+    private final int[] starts;
+    private final int[] lengths;
+    private final long[] firstLogicalBlock; // file block at which each extent begins
+    private final long blockCount;
+
+    public ExtentList(int[] starts, int[] lengths, int count) {
+        this.starts = Arrays.copyOf(starts, count);
+        this.lengths = Arrays.copyOf(lengths, count);
+        this.firstLogicalBlock = new long[count];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            firstLogicalBlock[i] = total;
+            total += lengths[i];
+        }
+        this.blockCount = total;
+    }
+
+    public int count() {
+        return starts.length;
+    }
+
+    public int getStart(int extent) {
+        return starts[extent];
+    }
+
+    public int getLength(int extent) {
+        return lengths[extent];
+    }
+
+    public long getFirstLogicalBlock(int extent) {
+        return firstLogicalBlock[extent];
+    }
+
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    // Extent holding the given file block, or -1 if it is past the end
+    public int findExtent(long logicalBlock) {
+        if (logicalBlock < 0 || logicalBlock >= blockCount) {
+            return -1;
+        }
+        int found = Arrays.binarySearch(firstLogicalBlock, logicalBlock);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    // Disk block holding the given file block, or -1 if it is past the end
+    public int physicalBlock(long logicalBlock) {
+        int extent = findExtent(logicalBlock);
+        return extent < 0 ? -1 : starts[extent] + (int) (logicalBlock - firstLogicalBlock[extent]);
+    }
+}
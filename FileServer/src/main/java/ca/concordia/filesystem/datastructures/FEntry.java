@@ -5,15 +5,16 @@ package ca.concordia.filesystem.datastructures;
 public class FEntry {
 
     private String filename;
-    private short filesize;
-    private short firstBlock; // Pointers to data blocks
+    private long filesize;
+    private int firstBlock; // Pointers to data blocks
+    private ExtentList extents; // data runs when the file uses the extent layout, otherwise null
 
     public FEntry() {
         this.filename = "";
         this.filesize = 0;
         this.firstBlock = -1;
     }
-    public FEntry(String filename, short filesize, short firstblock) throws IllegalArgumentException{
+    public FEntry(String filename, long filesize, int firstblock) throws IllegalArgumentException{
         //Check filename is max 11 bytes long
         if (filename.length() > 11) {
             throw new IllegalArgumentException("Filename cannot be longer than 11 characters.");
@@ -35,22 +36,34 @@ public class FEntry {
         this.filename = filename;
     }
 
-    public short getFilesize() {
+    public long getFilesize() {
         return filesize;
     }
 
-    public void setFilesize(short filesize) {
+    public void setFilesize(long filesize) {
         if (filesize < 0) {
             throw new IllegalArgumentException("Filesize cannot be negative.");
         }
         this.filesize = filesize;
     }
 
-    public short getFirstBlock() {
+    public int getFirstBlock() {
         return firstBlock;
     }
 
-    public void setFirstBlock(short firstBlock) {
+    public void setFirstBlock(int firstBlock) {
         this.firstBlock = firstBlock;
     }
+
+    public boolean isExtentBased() {
+        return extents != null;
+    }
+
+    public ExtentList getExtents() {
+        return extents;
+    }
+
+    public void setExtents(ExtentList extents) {
+        this.extents = extents;
+    }
 }
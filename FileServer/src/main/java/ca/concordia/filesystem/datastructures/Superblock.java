@@ -0,0 +1,197 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.nio.ByteBuffer;
+
+// Geometry and layout of a disk image, stored at offset 0 so an image of any size can be reopened.
+// Images written before the superblock existed have no magic number and use the legacy layout.
+// The version selects the FEntry/FNode record formats, so older images stay readable.
+public class Superblock {
+
+    public static final int MAGIC = 0x43444653; // "CDFS"
+    public static final int LEGACY_VERSION = 0; // no superblock: 5 files, 10 blocks of 128 bytes
+    public static final int NARROW_VERSION = 1; // 16-bit FEntry size and first block
+    public static final int CURRENT_VERSION = 2; // 64-bit FEntry size, 32-bit first block
+    public static final int ENCODED_SIZE = 64;
+    private static final int MIN_ENCODED_SIZE = 48; // images written before the bitmap region existed
+
+    public static final int DEFAULT_BLOCK_SIZE = 128;
+    public static final int MIN_BLOCK_SIZE = 64; // the superblock lives in block 0
+    public static final int MIN_FILES = 5;
+    public static final int EXTENTS_PER_INODE = 8; // files needing more runs fall back to an FNode chain
+    public static final int EXTENT_SIZE = 8; // 4 (start block) + 4 (length)
+
+    private final int version;
+    private final int blockSize;
+    private final int maxFiles;
+    private final int maxBlocks;
+    private final long fentryOffset; // inode table
+    private final long fnodeOffset;  // FNode table
+    private final long dataOffset;   // first data block, block aligned
+    private final long bitmapOffset; // persisted free-space bitmap, 0 if the image has none
+    private final long extentOffset; // EXTENTS_PER_INODE slots per inode, 0 if the image has none
+
+    private Superblock(int version, int blockSize, int maxFiles, int maxBlocks,
+                       long fentryOffset, long fnodeOffset, long dataOffset, long bitmapOffset, long extentOffset) {
+        this.version = version;
+        this.blockSize = blockSize;
+        this.maxFiles = maxFiles;
+        this.maxBlocks = maxBlocks;
+        this.fentryOffset = fentryOffset;
+        this.fnodeOffset = fnodeOffset;
+        this.dataOffset = dataOffset;
+        this.bitmapOffset = bitmapOffset;
+        this.extentOffset = extentOffset;
+    }
+
+    // Geometry for a new image: totalSize bytes of data space split into blockSize blocks.
+    // maxFiles <= 0 derives the inode count from the block count.
+    public static Superblock create(long totalSize, int blockSize, int maxFiles) {
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least " + MIN_BLOCK_SIZE + " bytes.");
+        }
+        long blocks = totalSize / blockSize;
+        if (blocks < 1) {
+            throw new IllegalArgumentException("Total size must hold at least one block.");
+        }
+        // Block and FNode pointers are 32-bit
+        if (blocks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Total size exceeds " + Integer.MAX_VALUE + " blocks.");
+        }
+        int files = maxFiles > 0 ? maxFiles : (int) Math.max(MIN_FILES, blocks / 2);
+
+        long fentryOffset = blockSize;
+        long extentOffset = fentryOffset + (long) files * getFEntrySize(CURRENT_VERSION);
+        long fnodeOffset = extentOffset + (long) files * EXTENTS_PER_INODE * EXTENT_SIZE;
+        long bitmapOffset = fnodeOffset + blocks * getFNodeSize(CURRENT_VERSION);
+        long metadataEnd = bitmapOffset + getBitmapSize(blocks);
+        long dataOffset = (metadataEnd + blockSize - 1) / blockSize * blockSize;
+        return new Superblock(CURRENT_VERSION, blockSize, files, (int) blocks, fentryOffset, fnodeOffset, dataOffset, bitmapOffset, extentOffset);
+    }
+
+    public static Superblock legacy() {
+        int files = 5;
+        int blocks = 10;
+        long fnodeOffset = (long) files * getFEntrySize(LEGACY_VERSION);
+        return new Superblock(LEGACY_VERSION, DEFAULT_BLOCK_SIZE, files, blocks, 0, fnodeOffset, DEFAULT_BLOCK_SIZE, 0, 0);
+    }
+
+    // Returns null if the bytes do not start with a superblock (legacy image)
+    public static Superblock decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < MIN_ENCODED_SIZE || buffer.getInt() != MAGIC) {
+            return null;
+        }
+        int version = buffer.getInt();
+        if (version < 1 || version > CURRENT_VERSION) {
+            throw new IllegalStateException("Unsupported disk image version " + version + ".");
+        }
+        int blockSize = buffer.getInt();
+        int maxFiles = buffer.getInt();
+        int maxBlocks = buffer.getInt();
+        buffer.getInt(); // reserved
+        long fentryOffset = buffer.getLong();
+        long fnodeOffset = buffer.getLong();
+        long dataOffset = buffer.getLong();
+        long bitmapOffset = buffer.remaining() >= 8 ? buffer.getLong() : 0;
+        long extentOffset = buffer.remaining() >= 8 ? buffer.getLong() : 0;
+        return new Superblock(version, blockSize, maxFiles, maxBlocks, fentryOffset, fnodeOffset, dataOffset, bitmapOffset, extentOffset);
+    }
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(version);
+        buffer.putInt(blockSize);
+        buffer.putInt(maxFiles);
+        buffer.putInt(maxBlocks);
+        buffer.putInt(0); // reserved
+        buffer.putLong(fentryOffset);
+        buffer.putLong(fnodeOffset);
+        buffer.putLong(dataOffset);
+        buffer.putLong(bitmapOffset);
+        buffer.putLong(extentOffset);
+        return buffer.array();
+    }
+
+    // On-disk record sizes per format version
+    public static int getFEntrySize(int version) {
+        if (version <= NARROW_VERSION) {
+            return 15; // 11 (filename) + 2 (size) + 2 (firstBlock)
+        }
+        return 24; // 11 (filename) + 1 (layout flags) + 8 (size) + 4 (firstBlock)
+    }
+
+    // One bit per block, stored as 8-byte words
+    public static long getBitmapSize(long blocks) {
+        return (blocks + 63) / 64 * 8;
+    }
+
+    public static int getFNodeSize(int version) {
+        return version == LEGACY_VERSION ? 4 : 8; // 2+2 shorts, then 4+4 ints (blockIndex, next)
+    }
+
+    public boolean isLegacy() {
+        return version == LEGACY_VERSION;
+    }
+
+    // Images older than CURRENT_VERSION keep their 16-bit FEntry fields
+    public boolean hasNarrowFEntries() {
+        return version <= NARROW_VERSION;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    public int getMaxBlocks() {
+        return maxBlocks;
+    }
+
+    public int getFEntrySize() {
+        return getFEntrySize(version);
+    }
+
+    public int getFNodeSize() {
+        return getFNodeSize(version);
+    }
+
+    public long getFEntryOffset(int index) {
+        return fentryOffset + (long) index * getFEntrySize();
+    }
+
+    public long getFNodeOffset(int index) {
+        return fnodeOffset + (long) index * getFNodeSize();
+    }
+
+    public boolean hasBitmap() {
+        return bitmapOffset != 0;
+    }
+
+    public long getBitmapWordOffset(int word) {
+        return bitmapOffset + (long) word * 8;
+    }
+
+    public boolean hasExtents() {
+        return extentOffset != 0;
+    }
+
+    public long getExtentSlotOffset(int inode) {
+        return extentOffset + (long) inode * EXTENTS_PER_INODE * EXTENT_SIZE;
+    }
+
+    public long getDataBlockOffset(int blockIndex) {
+        return dataOffset + (long) blockIndex * blockSize;
+    }
+
+    public long getImageSize() {
+        return getDataBlockOffset(maxBlocks);
+    }
+}
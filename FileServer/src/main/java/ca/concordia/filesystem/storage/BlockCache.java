@@ -0,0 +1,164 @@
+package ca.concordia.filesystem.storage;
+
+import java.util.Arrays;
+
+// Fixed-size cache of data blocks keyed by block index, with CLOCK (second chance) eviction.
+// Block contents live in one preallocated slab and the index is an open-addressing int map,
+// so a hit is a hash probe and an array copy: no allocation and no system call.
+public class BlockCache {
+
+    private static final int EMPTY = -1;
+
+    private final int blockSize;
+    private final int capacity;
+    private final byte[] slab; // capacity * blockSize bytes, one page per slot
+    private final int[] blockOf; // block held by each slot, or EMPTY
+    private final int[] validBytes; // bytes of the page that hold data (the last block of a file may be partial)
+    private final boolean[] referenced; // CLOCK reference bits
+    private int hand;
+
+    // Open-addressing map block -> slot, linear probing
+    private final int[] mapBlocks;
+    private final int[] mapSlots;
+    private final int mapMask;
+    private final int mapShift; // Fibonacci hashing: the top bits of block * golden ratio
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BlockCache(int capacity, int blockSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Block cache needs at least one block.");
+        }
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.slab = new byte[Math.multiplyExact(capacity, blockSize)];
+        this.blockOf = new int[capacity];
+        this.validBytes = new int[capacity];
+        this.referenced = new boolean[capacity];
+        Arrays.fill(blockOf, EMPTY);
+
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1; // load factor <= 0.5
+        this.mapBlocks = new int[tableSize];
+        this.mapSlots = new int[tableSize];
+        this.mapMask = tableSize - 1;
+        this.mapShift = 32 - Integer.numberOfTrailingZeros(tableSize);
+        Arrays.fill(mapBlocks, EMPTY);
+    }
+
+    // Copies the first len bytes of block into dst and returns true, or returns false on a miss
+    public synchronized boolean read(int block, byte[] dst, int off, int len) {
+        int slot = lookup(block);
+        if (slot == EMPTY || validBytes[slot] < len) {
+            misses++;
+            return false;
+        }
+        System.arraycopy(slab, slot * blockSize, dst, off, len);
+        referenced[slot] = true;
+        hits++;
+        return true;
+    }
+
+    // Caches the first len bytes of block, replacing whatever was cached for it
+    public synchronized void put(int block, byte[] src, int off, int len) {
+        int slot = lookup(block);
+        if (slot == EMPTY) {
+            slot = evict();
+            blockOf[slot] = block;
+            insert(block, slot);
+        }
+        System.arraycopy(src, off, slab, slot * blockSize, len);
+        validBytes[slot] = len;
+        referenced[slot] = true;
+    }
+
+    public synchronized void invalidate(int block) {
+        int slot = lookup(block);
+        if (slot != EMPTY) {
+            remove(block);
+            blockOf[slot] = EMPTY;
+            referenced[slot] = false;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Next free slot, or the first unreferenced one the clock hand reaches
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            hand = hand + 1 == capacity ? 0 : hand + 1;
+            if (blockOf[slot] == EMPTY) {
+                return slot;
+            }
+            if (referenced[slot]) {
+                referenced[slot] = false; // second chance
+            } else {
+                remove(blockOf[slot]);
+                blockOf[slot] = EMPTY;
+                evictions++;
+                return slot;
+            }
+        }
+    }
+
+    private int bucket(int block) {
+        return (block * 0x9E3779B9) >>> mapShift;
+    }
+
+    private int lookup(int block) {
+        for (int i = bucket(block); mapBlocks[i] != EMPTY; i = (i + 1) & mapMask) {
+            if (mapBlocks[i] == block) {
+                return mapSlots[i];
+            }
+        }
+        return EMPTY;
+    }
+
+    private void insert(int block, int slot) {
+        int i = bucket(block);
+        while (mapBlocks[i] != EMPTY) {
+            i = (i + 1) & mapMask;
+        }
+        mapBlocks[i] = block;
+        mapSlots[i] = slot;
+    }
+
+    // Backward-shift deletion keeps probe sequences intact without tombstones
+    private void remove(int block) {
+        int i = bucket(block);
+        while (mapBlocks[i] != block) {
+            if (mapBlocks[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mapMask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mapMask; mapBlocks[j] != EMPTY; j = (j + 1) & mapMask) {
+            int home = bucket(mapBlocks[j]);
+            // Move j into the hole unless its home bucket lies cyclically in (hole, j]
+            boolean stays = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!stays) {
+                mapBlocks[hole] = mapBlocks[j];
+                mapSlots[hole] = mapSlots[j];
+                hole = j;
+            }
+        }
+        mapBlocks[hole] = EMPTY;
+    }
+}
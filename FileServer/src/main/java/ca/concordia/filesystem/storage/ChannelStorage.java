@@ -0,0 +1,64 @@
+package ca.concordia.filesystem.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Default backend: one positional FileChannel call per read or write
+public class ChannelStorage implements DiskStorage {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel; // positional I/O only, the file pointer is never used
+
+    public ChannelStorage(String filename) throws IOException {
+        this.file = new RandomAccessFile(filename, "rw");
+        this.channel = file.getChannel();
+    }
+
+    @Override
+    public void read(long position, byte[] buffer, int offset, int length) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buffer, offset, length);
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of disk image at offset " + position);
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] buffer, int offset, int length) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(buffer, offset, length);
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        file.setLength(length);
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
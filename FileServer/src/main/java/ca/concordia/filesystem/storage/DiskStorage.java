@@ -0,0 +1,34 @@
+package ca.concordia.filesystem.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+// Byte-addressed backing store for the disk image. Reads and writes are positional
+// and may be called concurrently for non-overlapping ranges.
+public interface DiskStorage {
+
+    void read(long position, byte[] buffer, int offset, int length) throws IOException;
+
+    void write(long position, byte[] buffer, int offset, int length) throws IOException;
+
+    // Writes each buffer whole at the position of the same index, with the same outcome as
+    // writing them in order; an implementation may reorder and merge them to get there
+    default void write(long[] positions, byte[][] buffers) throws IOException {
+        for (int i = 0; i < positions.length; i++) {
+            write(positions[i], buffers[i], 0, buffers[i].length);
+        }
+    }
+
+    long size() throws IOException;
+
+    // Grows (zero filled) or shrinks the image
+    void setLength(long length) throws IOException;
+
+    // Makes every completed write durable
+    void force() throws IOException;
+
+    // Channel over the same image file, for bulk transfers
+    FileChannel channel();
+
+    void close() throws IOException;
+}
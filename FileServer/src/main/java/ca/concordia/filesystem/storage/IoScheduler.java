@@ -0,0 +1,284 @@
+package ca.concordia.filesystem.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Queues positional reads and writes from any number of threads and performs them on one "fs-io"
+// thread in batches. Everything queued when the thread wakes is sorted by disk offset, adjacent or
+// overlapping requests of the same kind become one system call, and the futures of the whole
+// batch are completed together once it is done. A read and a write that overlap are performed in
+// the order they were submitted; otherwise writes run before reads. Where writes overlap, the one
+// submitted last wins, as if they had run one after another.
+public class IoScheduler {
+
+    private static final int MAX_MERGED_BYTES = 1024 * 1024; // merged runs are split beyond this
+
+    private static final Comparator<Piece> BY_POSITION =
+            Comparator.<Piece>comparingLong(p -> p.position).thenComparingLong(p -> p.request.sequence);
+
+    private static final class Request {
+        final boolean write;
+        final long position;
+        final byte[] buffer;
+        final int offset;
+        final int length;
+        final long sequence;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        IOException failure;
+
+        Request(boolean write, long position, byte[] buffer, int offset, int length, long sequence) {
+            this.write = write;
+            this.position = position;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.sequence = sequence;
+        }
+
+        long end() {
+            return position + length;
+        }
+    }
+
+    // The part of a request that falls in one run, once an oversized run has been split
+    private static final class Piece {
+        final Request request;
+        final long position;
+        final int length;
+
+        Piece(Request request, long position, int length) {
+            this.request = request;
+            this.position = position;
+            this.length = length;
+        }
+
+        long end() {
+            return position + length;
+        }
+
+        int bufferOffset() {
+            return request.offset + (int) (position - request.position);
+        }
+    }
+
+    private final DiskStorage disk;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    private final Thread worker;
+
+    // Guarded by lock
+    private List<Request> queue = new ArrayList<>();
+    private long nextSequence;
+    private boolean closed;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong diskCalls = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public IoScheduler(DiskStorage disk) {
+        this.disk = disk;
+        this.worker = new Thread(this::run, "fs-io");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // Reads length bytes at position into buffer; the future completes once they are there
+    public CompletableFuture<Void> read(long position, byte[] buffer, int offset, int length) {
+        return submit(false, position, buffer, offset, length);
+    }
+
+    // Writes length bytes of buffer at position; the buffer must not change until the future completes
+    public CompletableFuture<Void> write(long position, byte[] buffer, int offset, int length) {
+        return submit(true, position, buffer, offset, length);
+    }
+
+    private CompletableFuture<Void> submit(boolean write, long position, byte[] buffer, int offset, int length) {
+        lock.lock();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("I/O scheduler is closed."));
+            }
+            Request request = new Request(write, position, buffer, offset, length, nextSequence++);
+            queue.add(request);
+            work.signal();
+            return request.done;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    // Reads and writes issued to the disk after merging, at most getRequestCount()
+    public long getDiskCallCount() {
+        return diskCalls.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    // Finishes everything already queued, then stops the I/O thread
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Request> batch;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    work.awaitUninterruptibly();
+                }
+                if (queue.isEmpty()) {
+                    return; // closed and drained
+                }
+                batch = queue;
+                queue = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+
+            // A request that overlaps one of the other kind starts a new phase, so the two keep
+            // their submission order; within a phase the writes go first
+            List<Request> writes = new ArrayList<>();
+            List<Request> reads = new ArrayList<>();
+            Ranges written = new Ranges();
+            Ranges read = new Ranges();
+            for (Request request : batch) {
+                if ((request.write ? read : written).overlaps(request.position, request.end())) {
+                    perform(writes);
+                    perform(reads);
+                    writes.clear();
+                    reads.clear();
+                    written = new Ranges();
+                    read = new Ranges();
+                }
+                (request.write ? writes : reads).add(request);
+                (request.write ? written : read).add(request.position, request.end());
+            }
+            perform(writes);
+            perform(reads);
+            requests.addAndGet(batch.size());
+            batches.incrementAndGet();
+            for (Request request : batch) {
+                if (request.failure != null) {
+                    request.done.completeExceptionally(request.failure);
+                } else {
+                    request.done.complete(null);
+                }
+            }
+        }
+    }
+
+    // Performs requests of one kind as runs of touching or overlapping ranges, lowest offset first.
+    // A run grows to at most MAX_MERGED_BYTES; when overlapping requests would take it further,
+    // it ends at that size and the requests crossing the cut continue in the next run.
+    private void perform(List<Request> requests) {
+        PriorityQueue<Piece> pieces = new PriorityQueue<>(Math.max(1, requests.size()), BY_POSITION);
+        for (Request request : requests) {
+            pieces.add(new Piece(request, request.position, request.length));
+        }
+        List<Piece> run = new ArrayList<>();
+        while (!pieces.isEmpty()) {
+            run.clear();
+            Piece first = pieces.poll();
+            run.add(first);
+            long runStart = first.position;
+            long runEnd = first.end();
+            while (!pieces.isEmpty()) {
+                Piece next = pieces.peek();
+                if (next.position > runEnd) {
+                    break;
+                }
+                if (Math.max(runEnd, next.end()) - runStart <= MAX_MERGED_BYTES) {
+                    run.add(pieces.poll());
+                    runEnd = Math.max(runEnd, next.end());
+                    continue;
+                }
+                if (next.position == runEnd) {
+                    break; // merely touching: start the next run there
+                }
+                runEnd = cut(run, pieces, Math.max(runStart + MAX_MERGED_BYTES, next.position));
+                break;
+            }
+            try {
+                if (run.size() == 1) {
+                    Piece only = run.get(0);
+                    if (only.request.write) {
+                        disk.write(only.position, only.request.buffer, only.bufferOffset(), only.length);
+                    } else {
+                        disk.read(only.position, only.request.buffer, only.bufferOffset(), only.length);
+                    }
+                } else if (first.request.write) {
+                    writeMerged(run, runStart, (int) (runEnd - runStart));
+                } else {
+                    readMerged(run, runStart, (int) (runEnd - runStart));
+                }
+            } catch (IOException e) {
+                for (Piece piece : run) {
+                    piece.request.failure = e;
+                }
+            }
+            diskCalls.incrementAndGet();
+        }
+    }
+
+    // Ends the run at limit: takes in the pieces that start before it, and puts back whatever of
+    // the run lies beyond it. Returns the new end of the run.
+    private static long cut(List<Piece> run, PriorityQueue<Piece> pieces, long limit) {
+        while (!pieces.isEmpty() && pieces.peek().position < limit) {
+            run.add(pieces.poll());
+        }
+        long runEnd = 0;
+        for (int i = 0; i < run.size(); i++) {
+            Piece piece = run.get(i);
+            if (piece.end() > limit) {
+                pieces.add(new Piece(piece.request, limit, (int) (piece.end() - limit)));
+                piece = new Piece(piece.request, piece.position, (int) (limit - piece.position));
+                run.set(i, piece);
+            }
+            runEnd = Math.max(runEnd, piece.end());
+        }
+        return runEnd;
+    }
+
+    private void writeMerged(List<Piece> run, long position, int length) throws IOException {
+        byte[] merged = new byte[length];
+        List<Piece> inOrder = new ArrayList<>(run);
+        inOrder.sort(Comparator.comparingLong(p -> p.request.sequence));
+        for (Piece piece : inOrder) {
+            System.arraycopy(piece.request.buffer, piece.bufferOffset(), merged, (int) (piece.position - position), piece.length);
+        }
+        disk.write(position, merged, 0, length);
+    }
+
+    private void readMerged(List<Piece> run, long position, int length) throws IOException {
+        byte[] merged = new byte[length];
+        disk.read(position, merged, 0, length);
+        for (Piece piece : run) {
+            System.arraycopy(merged, (int) (piece.position - position), piece.request.buffer, piece.bufferOffset(), piece.length);
+        }
+    }
+}
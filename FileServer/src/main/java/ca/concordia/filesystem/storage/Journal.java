@@ -0,0 +1,546 @@
+package ca.concordia.filesystem.storage;
+
+import ca.concordia.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// Write-ahead log in front of a DiskStorage. Writes are appended in memory and tagged with the
+// calling thread's transaction; commit() waits until a background thread has made them durable.
+// That thread group-commits everything pending with one fsync of the journal file, then applies the
+// writes to the image, so concurrent operations share an fsync instead of paying for one each.
+// Only writes of transactions whose COMMIT has been synced reach the image, and the writes of an
+// aborted transaction are dropped. A write held back for a transaction still open also holds back
+// later writes to the same bytes, so those reach the image in log order. The image itself is only
+// forced at checkpoints, after which the journal is cut down to the records of held writes.
+//
+// Record: type (1) + transaction (8) + offset (8) + length (4) + bytes + CRC32 (4).
+// On recovery only transactions with a COMMIT record are applied; a torn tail is ignored.
+public class Journal {
+
+    private static final byte WRITE = 1;
+    private static final byte COMMIT = 2;
+    private static final int HEADER_SIZE = 21;
+    private static final int CRC_SIZE = 4;
+    private static final long CHECKPOINT_BYTES = 32L * 1024 * 1024; // journal size that triggers a checkpoint
+
+    private final DiskStorage disk;
+    private final Path path;
+    private FileChannel log; // replaced by each compacting checkpoint; only the commit thread uses it
+    private final long commitIntervalNanos;
+    private final int commitBatchBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition(); // commits waiting or batch full
+    private final Condition applied = lock.newCondition(); // writes applied or dropped
+
+    // Guarded by lock
+    private List<ByteBuffer> pending = new ArrayList<>(); // records not yet written, as header, data and CRC
+    private long pendingBytes;
+    private final ArrayDeque<Write> unapplied = new ArrayDeque<>(); // logged, neither applied nor dropped, in log order
+    private long appendedLsn; // bytes ever appended
+    private long syncedLsn; // bytes written to the journal and synced
+    private long requestedLsn; // highest commit anyone is waiting for
+    private long writesLogged;
+    private long writesResolved; // applied to the image or dropped
+    private boolean resolveRequested; // an abort may have released writes held behind it
+    private long nextTransaction = 1;
+    private long checkpointsRequested;
+    private long checkpointsDone;
+    private long syncs; // journal fsyncs, each covering one group commit
+    private final LatencyHistogram syncLatency = new LatencyHistogram(); // of those fsyncs
+    private IOException failure;
+    private boolean closed;
+
+    private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
+    private final Thread committer;
+
+    // Fields guarded by lock
+    private static class Transaction {
+        final long id;
+        int unapplied; // its writes neither applied nor dropped yet
+        long commitLsn; // end of its COMMIT record, 0 while open
+        boolean aborted;
+
+        Transaction(long id) {
+            this.id = id;
+        }
+    }
+
+    private static class Write {
+        final Transaction tx;
+        final long offset;
+        final byte[] data;
+        final long lsn; // end of its record
+
+        Write(Transaction tx, long offset, byte[] data, long lsn) {
+            this.tx = tx;
+            this.offset = offset;
+            this.data = data;
+            this.lsn = lsn;
+        }
+    }
+
+    public Journal(String filename, DiskStorage disk, long commitIntervalMillis, int commitBatchBytes) throws IOException {
+        this.disk = disk;
+        this.path = Paths.get(filename);
+        this.log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, commitIntervalMillis));
+        this.commitBatchBytes = Math.max(HEADER_SIZE + CRC_SIZE, commitBatchBytes);
+        this.committer = new Thread(this::runCommitter, "fs-journal");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    // Applies the committed transactions left by a crash to the image, then empties the journal.
+    // Returns the number of transactions replayed.
+    public static int recover(String filename, DiskStorage disk) throws IOException {
+        Path path = Paths.get(filename);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        List<long[]> writes = new ArrayList<>(); // transaction, position of the record, end of its bytes in the image
+        Set<Long> committed = new HashSet<>();
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        while (in.remaining() >= HEADER_SIZE + CRC_SIZE) {
+            int start = in.position();
+            byte type = in.get();
+            long tx = in.getLong();
+            long offset = in.getLong();
+            int length = in.getInt();
+            if (length < 0 || in.remaining() < length + CRC_SIZE) {
+                break; // torn tail
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, start, HEADER_SIZE + length);
+            in.position(in.position() + length);
+            if (in.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            if (type == WRITE) {
+                writes.add(new long[] {tx, start, offset + length});
+            } else if (type == COMMIT) {
+                committed.add(tx);
+            }
+        }
+        // A crash can leave the image shorter than what was committed to it, before it was first sized
+        long end = 0;
+        for (long[] write : writes) {
+            if (committed.contains(write[0])) {
+                end = Math.max(end, write[2]);
+            }
+        }
+        if (end > disk.size()) {
+            disk.setLength(end);
+        }
+        for (long[] write : writes) {
+            if (committed.contains(write[0])) {
+                ByteBuffer record = ByteBuffer.wrap(bytes, (int) write[1] + 9, 12);
+                long offset = record.getLong();
+                int length = record.getInt();
+                disk.write(offset, bytes, (int) write[1] + HEADER_SIZE, length);
+            }
+        }
+        disk.force();
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.setLength(0);
+            file.getFD().sync();
+        }
+        return committed.size();
+    }
+
+    // Queues a write to the image as part of the calling thread's transaction
+    public void append(long offset, byte[] buffer, int off, int len) throws IOException {
+        byte[] data = Arrays.copyOfRange(buffer, off, off + len);
+        lock.lock();
+        try {
+            checkOpen();
+            Transaction tx = currentTransaction();
+            appendRecord(WRITE, tx.id, offset, data);
+            unapplied.add(new Write(tx, offset, data, appendedLsn));
+            tx.unapplied++;
+            writesLogged++;
+            if (pendingBytes >= commitBatchBytes) {
+                work.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Commits the calling thread's transaction and waits until it is durable and applied to the image.
+    // A thread that wrote nothing waits for everything logged before the call instead, which may
+    // include state it depends on that another transaction carried.
+    public void commit() throws IOException {
+        Transaction tx = transaction.get();
+        transaction.remove();
+        lock.lock();
+        try {
+            checkOpen();
+            if (tx == null) {
+                awaitResolved(writesLogged);
+            } else {
+                appendRecord(COMMIT, tx.id, 0, new byte[0]);
+                tx.commitLsn = appendedLsn;
+                requestedLsn = appendedLsn;
+                work.signal();
+                while (tx.unapplied > 0 && failure == null) {
+                    applied.awaitUninterruptibly();
+                }
+            }
+            if (failure != null) {
+                throw new IOException("Journal commit failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ends the calling thread's transaction without a COMMIT record: its writes never reach the image
+    public void abort() {
+        Transaction tx = transaction.get();
+        transaction.remove();
+        if (tx == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            tx.aborted = true;
+            resolveRequested = true;
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits until every write logged so far has been applied to the image or dropped
+    public void awaitApplied() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            awaitResolved(writesLogged);
+            if (failure != null) {
+                throw new IOException("Journal failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Forces the image and cuts the journal down to the records of held writes, as a checkpoint does,
+    // and waits for it. No record of a write already applied can be replayed after that.
+    public void checkpoint() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            long ticket = ++checkpointsRequested;
+            work.signal();
+            while (checkpointsDone < ticket && failure == null) {
+                applied.awaitUninterruptibly();
+            }
+            if (checkpointsDone < ticket) {
+                throw new IOException("Journal checkpoint failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public LatencyHistogram getSyncLatency() {
+        return syncLatency;
+    }
+
+    // Flushes everything pending, checkpoints and stops the commit thread
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        if (failure != null) {
+            throw failure;
+        }
+        Files.deleteIfExists(path); // fully checkpointed, nothing to replay
+    }
+
+    // Caller holds lock
+    private void awaitResolved(long logged) {
+        while (writesResolved < logged && failure == null) {
+            applied.awaitUninterruptibly();
+        }
+    }
+
+    private Transaction currentTransaction() {
+        Transaction tx = transaction.get();
+        if (tx == null) {
+            tx = new Transaction(nextTransaction++);
+            transaction.set(tx);
+        }
+        return tx;
+    }
+
+    private void appendRecord(byte type, long tx, long offset, byte[] data) {
+        pending.addAll(Arrays.asList(encodeRecord(type, tx, offset, data)));
+        int size = HEADER_SIZE + data.length + CRC_SIZE;
+        pendingBytes += size;
+        appendedLsn += size;
+    }
+
+    // Header, data and CRC of a record. The data is not copied: the pending record and the Write
+    // waiting to be applied share it.
+    private static ByteBuffer[] encodeRecord(byte type, long tx, long offset, byte[] data) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(type).putLong(tx).putLong(offset).putInt(data.length).flip();
+        CRC32 crc = new CRC32();
+        crc.update(header.array());
+        crc.update(data);
+        ByteBuffer trailer = ByteBuffer.allocate(CRC_SIZE);
+        trailer.putInt((int) crc.getValue()).flip();
+        return new ByteBuffer[] {header, ByteBuffer.wrap(data), trailer};
+    }
+
+    // Writes the buffers whole at the channel's position and returns the number of bytes
+    private static long writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        for (long written = 0; written < total; ) {
+            written += channel.write(buffers);
+        }
+        return total;
+    }
+
+    // Replaces the journal, once the image has been forced, with the records still needed: those of
+    // the held writes, and a COMMIT for each of their transactions that already has one. The new
+    // journal is synced under another name and then renamed over the old one. Returns its size.
+    private long compact(List<Write> kept, Set<Long> committed) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>();
+        for (Write write : kept) {
+            records.addAll(Arrays.asList(encodeRecord(WRITE, write.tx.id, write.offset, write.data)));
+        }
+        for (long tx : committed) {
+            records.addAll(Arrays.asList(encodeRecord(COMMIT, tx, 0, new byte[0])));
+        }
+        Path compacted = Paths.get(path + ".compact");
+        long size;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            size = writeFully(out, records.toArray(new ByteBuffer[0]));
+            out.force(false);
+        }
+        log.close();
+        Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true); // the rename itself must survive a crash
+        }
+        log = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return size;
+    }
+
+    // Takes the writes whose fate is known, in log order: those of transactions with a synced COMMIT
+    // go into ready, those of aborted ones are dropped. A committed write that overlaps one still held
+    // back stays too. Returns how many were taken.
+    private int takeResolved(List<Write> ready) {
+        int taken = 0;
+        Ranges held = new Ranges();
+        for (Iterator<Write> it = unapplied.iterator(); it.hasNext(); ) {
+            Write write = it.next();
+            long end = write.offset + write.data.length;
+            if (!write.tx.aborted && (write.tx.commitLsn == 0 || write.tx.commitLsn > syncedLsn
+                    || held.overlaps(write.offset, end))) {
+                held.add(write.offset, end);
+                continue;
+            }
+            it.remove();
+            taken++;
+            if (!write.tx.aborted) {
+                ready.add(write);
+            }
+        }
+        return taken;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed.");
+        }
+        if (failure != null) {
+            throw new IOException("Journal failed", failure);
+        }
+    }
+
+    private void runCommitter() {
+        long logSize = 0;
+        long checkpointAt = CHECKPOINT_BYTES; // past what a compacted journal kept
+        long swappedLsn = 0; // end of the last batch taken from pending
+        while (true) {
+            ByteBuffer[] batch;
+            long batchBytes;
+            long checkpointTicket;
+            boolean checkpointRequested;
+            long batchLsn;
+            boolean stopping;
+            lock.lock();
+            try {
+                while (!closed && requestedLsn <= swappedLsn && pendingBytes < commitBatchBytes && !resolveRequested
+                        && checkpointsRequested == checkpointsDone) {
+                    work.awaitUninterruptibly();
+                }
+                // Give concurrent operations the commit interval to join this batch
+                long deadline = System.nanoTime() + commitIntervalNanos;
+                long wait;
+                while (!closed && requestedLsn > swappedLsn && pendingBytes < commitBatchBytes
+                        && (wait = deadline - System.nanoTime()) > 0) {
+                    try {
+                        work.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                stopping = closed;
+                checkpointTicket = checkpointsRequested;
+                checkpointRequested = checkpointTicket > checkpointsDone;
+                resolveRequested = false;
+                batch = pending.toArray(new ByteBuffer[0]);
+                batchBytes = pendingBytes;
+                batchLsn = appendedLsn;
+                swappedLsn = batchLsn;
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                if (batchBytes > 0) {
+                    log.position(logSize);
+                    logSize += writeFully(log, batch);
+                    long syncStart = System.nanoTime();
+                    log.force(false); // the group commit: one fsync for every transaction in the batch
+                    syncLatency.recordSince(syncStart);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+
+            List<Write> ready = new ArrayList<>();
+            int resolved = 0;
+            List<Write> kept = new ArrayList<>(); // held writes already in the journal file
+            Set<Long> keptCommits = new HashSet<>();
+            lock.lock();
+            try {
+                if (error == null) {
+                    if (batchBytes > 0) {
+                        syncs++;
+                    }
+                    syncedLsn = batchLsn;
+                    resolved = takeResolved(ready);
+                    for (Write write : unapplied) {
+                        if (write.lsn > syncedLsn) {
+                            break; // still pending, written to whichever journal comes next
+                        }
+                        kept.add(write);
+                        if (write.tx.commitLsn != 0 && write.tx.commitLsn <= syncedLsn) {
+                            keptCommits.add(write.tx.id);
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (error == null && !ready.isEmpty()) {
+                    // Handed over as one batch, which a scheduling disk sorts and merges
+                    long[] offsets = new long[ready.size()];
+                    byte[][] data = new byte[ready.size()][];
+                    for (int i = 0; i < offsets.length; i++) {
+                        offsets[i] = ready.get(i).offset;
+                        data[i] = ready.get(i).data;
+                    }
+                    disk.write(offsets, data);
+                }
+                // Held writes must stay in the journal until their transaction commits; at stop none
+                // of them can, since commits are no longer accepted
+                if (error == null && stopping && (logSize > 0 || checkpointRequested)) {
+                    disk.force();
+                    log.truncate(0);
+                    log.force(false);
+                    logSize = 0;
+                } else if (error == null && (logSize >= checkpointAt || checkpointRequested)) {
+                    disk.force();
+                    if (kept.isEmpty()) {
+                        log.truncate(0);
+                        log.force(false);
+                        logSize = 0;
+                    } else {
+                        logSize = compact(kept, keptCommits);
+                    }
+                    checkpointAt = logSize + CHECKPOINT_BYTES;
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    for (Write write : ready) {
+                        write.tx.unapplied--;
+                    }
+                    writesResolved += resolved;
+                    checkpointsDone = checkpointTicket;
+                }
+                applied.signalAll();
+                if (stopping || failure != null) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
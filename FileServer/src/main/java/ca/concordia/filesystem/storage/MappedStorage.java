@@ -0,0 +1,105 @@
+package ca.concordia.filesystem.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Maps the whole image into memory: block reads and writes become memory copies and
+// nothing reaches the disk until force() is called at a commit point.
+public class MappedStorage implements DiskStorage {
+
+    // A single MappedByteBuffer is limited to 2 GB, larger images are mapped in segments
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments;
+    private volatile long length;
+
+    public MappedStorage(String filename) throws IOException {
+        this.file = new RandomAccessFile(filename, "rw");
+        this.channel = file.getChannel();
+        map(channel.size());
+    }
+
+    private void map(long newLength) throws IOException {
+        int count = (int) ((newLength + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, newLength - start));
+        }
+        this.segments = mapped;
+        this.length = newLength;
+    }
+
+    @Override
+    public void read(long position, byte[] buffer, int offset, int length) throws IOException {
+        checkBounds(position, length);
+        MappedByteBuffer[] mapped = segments;
+        while (length > 0) {
+            int index = (int) (position & (SEGMENT_SIZE - 1));
+            int n = (int) Math.min(length, SEGMENT_SIZE - index);
+            // Absolute bulk get leaves the shared buffer position alone
+            mapped[(int) (position >>> SEGMENT_SHIFT)].get(index, buffer, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] buffer, int offset, int length) throws IOException {
+        checkBounds(position, length);
+        MappedByteBuffer[] mapped = segments;
+        while (length > 0) {
+            int index = (int) (position & (SEGMENT_SIZE - 1));
+            int n = (int) Math.min(length, SEGMENT_SIZE - index);
+            mapped[(int) (position >>> SEGMENT_SHIFT)].put(index, buffer, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void checkBounds(long position, int count) throws EOFException {
+        if (position < 0 || position + count > length) {
+            throw new EOFException("Access outside the mapped disk image at offset " + position);
+        }
+    }
+
+    @Override
+    public long size() {
+        return length;
+    }
+
+    // Not safe against concurrent reads or writes; only used while formatting or loading
+    @Override
+    public synchronized void setLength(long newLength) throws IOException {
+        force();
+        file.setLength(newLength);
+        map(newLength);
+    }
+
+    @Override
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        segments = new MappedByteBuffer[0];
+        file.close();
+    }
+}
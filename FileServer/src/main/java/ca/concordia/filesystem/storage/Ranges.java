@@ -0,0 +1,27 @@
+package ca.concordia.filesystem.storage;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// Disjoint byte ranges, to tell whether a new range overlaps any of those added so far
+class Ranges {
+    private final TreeMap<Long, Long> ends = new TreeMap<>(); // start -> end
+
+    boolean overlaps(long start, long end) {
+        Map.Entry<Long, Long> before = ends.lowerEntry(end);
+        return before != null && before.getValue() > start;
+    }
+
+    void add(long start, long end) {
+        if (start == end) {
+            return;
+        }
+        Map.Entry<Long, Long> before;
+        while ((before = ends.lowerEntry(end + 1)) != null && before.getValue() >= start) {
+            start = Math.min(start, before.getKey());
+            end = Math.max(end, before.getValue());
+            ends.remove(before.getKey());
+        }
+        ends.put(start, end);
+    }
+}
@@ -0,0 +1,82 @@
+package ca.concordia.filesystem.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// Sends the reads and writes of another DiskStorage through an IoScheduler, so concurrent callers'
+// block I/O is sorted and merged before it reaches the disk. Each call still blocks until its own
+// request is done; a batch of writes is queued at once and waited for together.
+public class ScheduledStorage implements DiskStorage {
+
+    private final DiskStorage disk;
+    private final IoScheduler scheduler;
+
+    public ScheduledStorage(DiskStorage disk) {
+        this.disk = disk;
+        this.scheduler = new IoScheduler(disk);
+    }
+
+    @Override
+    public void read(long position, byte[] buffer, int offset, int length) throws IOException {
+        await(scheduler.read(position, buffer, offset, length));
+    }
+
+    @Override
+    public void write(long position, byte[] buffer, int offset, int length) throws IOException {
+        await(scheduler.write(position, buffer, offset, length));
+    }
+
+    @Override
+    public void write(long[] positions, byte[][] buffers) throws IOException {
+        CompletableFuture<?>[] writes = new CompletableFuture<?>[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            writes[i] = scheduler.write(positions[i], buffers[i], 0, buffers[i].length);
+        }
+        await(CompletableFuture.allOf(writes));
+    }
+
+    private static void await(CompletableFuture<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for disk I/O");
+        }
+    }
+
+    public IoScheduler getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return disk.size();
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        disk.setLength(length);
+    }
+
+    // Every write call has returned, so every write the scheduler was given has been performed
+    @Override
+    public void force() throws IOException {
+        disk.force();
+    }
+
+    @Override
+    public FileChannel channel() {
+        return disk.channel();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.close();
+        disk.close();
+    }
+}
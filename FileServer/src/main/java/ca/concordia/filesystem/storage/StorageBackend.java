@@ -0,0 +1,19 @@
+package ca.concordia.filesystem.storage;
+
+import java.io.IOException;
+
+// Storage implementations that can hold the disk image, selected at startup
+public enum StorageBackend {
+    CHANNEL,
+    MAPPED;
+
+    public DiskStorage open(String filename) throws IOException {
+        switch (this) {
+            case MAPPED:
+                return new MappedStorage(filename);
+            case CHANNEL:
+            default:
+                return new ChannelStorage(filename);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ca.concordia.logging;
+
+public enum LogLevel {
+    DEBUG, // per connection and per request; sampled, off by default
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+}
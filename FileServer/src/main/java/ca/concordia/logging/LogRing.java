@@ -0,0 +1,181 @@
+package ca.concordia.logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded multi-producer ring of log events, drained by one daemon thread that formats them and
+// writes each batch with a single print. Logging threads only claim a slot with a CAS: they never
+// wait for the console, and when the ring is full the event is counted as dropped instead.
+final class LogRing {
+
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+
+    static final class Event {
+        final long timeMillis;
+        final LogLevel level;
+        final String component;
+        final String thread;
+        final String message;
+        final String key1;
+        final Object value1;
+        final String key2;
+        final Object value2;
+
+        Event(LogLevel level, String component, String message, String key1, Object value1, String key2, Object value2) {
+            this.timeMillis = System.currentTimeMillis();
+            this.level = level;
+            this.component = component;
+            this.thread = Thread.currentThread().getName();
+            this.message = message;
+            this.key1 = key1;
+            this.value1 = value1;
+            this.key2 = key2;
+            this.value2 = value2;
+        }
+
+        // time level component [thread] message key=value ...
+        void format(StringBuilder out) {
+            out.append(Instant.ofEpochMilli(timeMillis)).append(' ')
+                    .append(level).append(' ')
+                    .append(component).append(" [").append(thread).append("] ")
+                    .append(message);
+            field(out, key1, value1);
+            field(out, key2, value2);
+            out.append(System.lineSeparator());
+        }
+
+        private static void field(StringBuilder out, String key, Object value) {
+            if (key == null) {
+                return;
+            }
+            out.append(' ').append(key).append('=');
+            String text = String.valueOf(value);
+            if (!text.isEmpty() && text.chars().noneMatch(c -> c <= ' ' || c == '"' || c == '=')) {
+                out.append(text);
+                return;
+            }
+            out.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else if (c == '\r') {
+                    out.append("\\r");
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+    }
+
+    private final Event[] events;
+    private final AtomicLongArray sequences; // per slot: the claim position it is free for, or position + 1 once filled
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next position to claim
+    private long tail; // next position to drain, guarded by this
+    private final LongAdder dropped = new LongAdder();
+    private long droppedReported; // guarded by this
+
+    private volatile PrintStream out;
+    private volatile PrintStream err;
+
+    LogRing(int capacity, PrintStream out, PrintStream err) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two.");
+        }
+        this.events = new Event[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.out = out;
+        this.err = err;
+
+        Thread writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-flush"));
+    }
+
+    void setOutput(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    // Never blocks; false if the ring is full and the event was dropped
+    boolean offer(Event event) {
+        long position = head.get();
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    events[slot] = event;
+                    sequences.set(slot, position + 1); // publishes the event to the writer
+                    return true;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                dropped.increment(); // the writer has not yet drained this slot's previous lap
+                return false;
+            } else {
+                position = head.get(); // another producer claimed it first
+            }
+        }
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void run() {
+        while (true) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // Writes every published event, errors and warnings to err and the rest to out. Returns the
+    // number written.
+    synchronized int drain() {
+        StringBuilder normal = new StringBuilder();
+        StringBuilder problems = new StringBuilder();
+        int count = 0;
+        while (true) {
+            int slot = (int) (tail & mask);
+            if (sequences.get(slot) != tail + 1) {
+                break;
+            }
+            Event event = events[slot];
+            events[slot] = null;
+            sequences.set(slot, tail + events.length); // free for the next lap
+            tail++;
+            count++;
+            event.format(event.level.compareTo(LogLevel.WARN) >= 0 ? problems : normal);
+        }
+        long droppedNow = dropped.sum();
+        if (droppedNow != droppedReported) {
+            new Event(LogLevel.WARN, "Logger", "Log events dropped", "count", droppedNow - droppedReported, null, null)
+                    .format(problems);
+            droppedReported = droppedNow;
+        }
+        if (normal.length() > 0) {
+            out.print(normal);
+            out.flush();
+        }
+        if (problems.length() > 0) {
+            err.print(problems);
+            err.flush();
+        }
+        return count;
+    }
+}
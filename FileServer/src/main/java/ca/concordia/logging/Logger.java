@@ -0,0 +1,121 @@
+package ca.concordia.logging;
+
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Structured, asynchronous logging: a message plus up to two key=value fields, handed to a ring
+// buffer that a background thread writes out, so callers never wait on the console. A disabled
+// level costs one volatile read. DEBUG is for per-request events and can be sampled down to one
+// event in n. Values are rendered on the writer thread, so pass immutable ones.
+public final class Logger {
+
+    private static final int RING_CAPACITY = 8192;
+    private static final LogRing RING = new LogRing(RING_CAPACITY, System.out, System.err);
+
+    private static volatile LogLevel level = LogLevel.INFO;
+    private static volatile int debugSampleEvery = 1;
+
+    private final String component;
+
+    private Logger(String component) {
+        this.component = component;
+    }
+
+    public static Logger get(Class<?> type) {
+        return new Logger(type.getSimpleName());
+    }
+
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    // Keeps one DEBUG event in n, chosen at random; 1 keeps them all
+    public static void setDebugSampling(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Sampling rate must be at least 1.");
+        }
+        debugSampleEvery = n;
+    }
+
+    // Where events end up: WARN and ERROR go to err, the rest to out
+    public static void setOutput(PrintStream out, PrintStream err) {
+        RING.setOutput(out, err);
+    }
+
+    // Events lost because the ring was full
+    public static long getDroppedCount() {
+        return RING.getDroppedCount();
+    }
+
+    // Writes out everything logged so far before returning
+    public static void flush() {
+        RING.drain();
+    }
+
+    public boolean isEnabled(LogLevel eventLevel) {
+        return eventLevel.compareTo(level) >= 0 && eventLevel != LogLevel.OFF;
+    }
+
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, null, null, null, null);
+    }
+
+    public void debug(String message, String key, Object value) {
+        log(LogLevel.DEBUG, message, key, value, null, null);
+    }
+
+    public void debug(String message, String key1, Object value1, String key2, Object value2) {
+        log(LogLevel.DEBUG, message, key1, value1, key2, value2);
+    }
+
+    public void info(String message) {
+        log(LogLevel.INFO, message, null, null, null, null);
+    }
+
+    public void info(String message, String key, Object value) {
+        log(LogLevel.INFO, message, key, value, null, null);
+    }
+
+    public void info(String message, String key1, Object value1, String key2, Object value2) {
+        log(LogLevel.INFO, message, key1, value1, key2, value2);
+    }
+
+    public void warn(String message) {
+        log(LogLevel.WARN, message, null, null, null, null);
+    }
+
+    public void warn(String message, String key, Object value) {
+        log(LogLevel.WARN, message, key, value, null, null);
+    }
+
+    public void warn(String message, String key1, Object value1, String key2, Object value2) {
+        log(LogLevel.WARN, message, key1, value1, key2, value2);
+    }
+
+    public void error(String message) {
+        log(LogLevel.ERROR, message, null, null, null, null);
+    }
+
+    public void error(String message, String key, Object value) {
+        log(LogLevel.ERROR, message, key, value, null, null);
+    }
+
+    public void error(String message, String key1, Object value1, String key2, Object value2) {
+        log(LogLevel.ERROR, message, key1, value1, key2, value2);
+    }
+
+    private void log(LogLevel eventLevel, String message, String key1, Object value1, String key2, Object value2) {
+        if (!isEnabled(eventLevel)) {
+            return;
+        }
+        if (eventLevel == LogLevel.DEBUG && debugSampleEvery > 1
+                && ThreadLocalRandom.current().nextInt(debugSampleEvery) != 0) {
+            return;
+        }
+        RING.offer(new LogRing.Event(eventLevel, component, message, key1, value1, key2, value2));
+    }
+}
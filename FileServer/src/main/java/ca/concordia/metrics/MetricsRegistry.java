@@ -0,0 +1,67 @@
+package ca.concordia.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Named counters, gauges and latency histograms. Counters are LongAdders and histograms are
+// lock-free, so updating them never contends; names are registered once and looked up without
+// locking. Components that already count something (caches, the journal, the limiter) are
+// exposed as gauges reading their own counters rather than being counted twice.
+public class MetricsRegistry {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    public MetricsRegistry() {
+        gauge("uptime.ms", () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    // Registers an existing histogram, e.g. one owned by the filesystem, under name
+    public void histogram(String name, LatencyHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Every metric as one value: histograms expand into name.count, name.mean_us, name.p50_us,
+    // name.p90_us, name.p99_us, name.p99_9_us and name.max_us
+    public SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean_us", micros(histogram.getMeanNanos()));
+            for (double percentile : PERCENTILES) {
+                String label = percentile == (long) percentile ? String.valueOf((long) percentile)
+                        : String.valueOf(percentile).replace('.', '_');
+                values.put(name + ".p" + label + "_us", micros(histogram.getPercentileNanos(percentile)));
+            }
+            values.put(name + ".max_us", micros(histogram.getMaxNanos()));
+        });
+        return values;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
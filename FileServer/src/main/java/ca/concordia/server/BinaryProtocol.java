@@ -0,0 +1,44 @@
+package ca.concordia.server;
+
+// Length-prefixed binary protocol, served to clients whose very first byte is HANDSHAKE; any other
+// first byte starts the text protocol as before. All integers are big-endian.
+//   request: opcode u8 | name length u16 | payload length u32 | name (UTF-8) | payload
+//   reply:   status u8 | payload length u32 | payload
+// WRITE payloads and READ replies are the raw file bytes, so contents may be binary or hold
+// newlines. LIST replies carry the names separated by '\n', ERROR replies the UTF-8 message.
+// Streaming: WRITE_BEGIN carries the total size (u64), each WRITE_CHUNK the next bytes, and
+// WRITE_END publishes them; READ_RANGE carries offset (u64) and length (u32) and gets those bytes.
+// WRITE_AT carries an offset (u64) followed by the bytes to write there; APPEND just the bytes.
+// STATS replies with one "name=value" metric per line.
+public final class BinaryProtocol {
+
+    public static final int HANDSHAKE = 0xFB; // never the first byte of a UTF-8 text command
+
+    // Request opcodes
+    public static final byte CREATE = 1;
+    public static final byte READ = 2;
+    public static final byte WRITE = 3;
+    public static final byte DELETE = 4;
+    public static final byte LIST = 5;
+    public static final byte QUIT = 6; // replied to, then the server closes the connection
+    public static final byte WRITE_BEGIN = 7;
+    public static final byte WRITE_CHUNK = 8;
+    public static final byte WRITE_END = 9;
+    public static final byte READ_RANGE = 10;
+    public static final byte WRITE_AT = 11;
+    public static final byte APPEND = 12;
+    public static final byte STATS = 13;
+
+    // Reply statuses
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    public static final int REQUEST_HEADER_BYTES = 7;
+    public static final int REPLY_HEADER_BYTES = 5;
+    public static final int MAX_NAME = 255;
+    public static final int MAX_PAYLOAD = 16 * 1024 * 1024; // larger frames get an ERROR reply and the connection is closed
+    public static final int MAX_FRAME = REQUEST_HEADER_BYTES + MAX_NAME + MAX_PAYLOAD;
+
+    private BinaryProtocol() {
+    }
+}
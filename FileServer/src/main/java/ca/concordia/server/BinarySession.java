@@ -0,0 +1,98 @@
+package ca.concordia.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+// Serves the binary protocol on a blocking connection once its handshake byte has been read.
+// Headers, names and payloads are read into the same buffers for every frame. Frames are answered
+// in order, and replies are flushed only when no further pipelined frame has arrived yet. Large
+// files are READ with transferTo from the image to the socket channel, bypassing both buffers.
+class BinarySession {
+
+    private static final int INITIAL_PAYLOAD = 8192;
+
+    private final CommandHandler handler;
+    private final InputStream in;
+    private final OutputStream out;
+    private final SocketChannel channel; // null when the socket has none: every READ is copied
+    private final Session session;
+    private final byte[] header = new byte[BinaryProtocol.REQUEST_HEADER_BYTES];
+    private final ByteBuffer headerView = ByteBuffer.wrap(header);
+    private final byte[] replyHeader = new byte[BinaryProtocol.REPLY_HEADER_BYTES];
+    private final ByteBuffer replyHeaderView = ByteBuffer.wrap(replyHeader);
+    private final Frame request = new Frame(INITIAL_PAYLOAD);
+    private final Frame reply = new Frame(0);
+
+    BinarySession(CommandHandler handler, Session session, InputStream in, OutputStream out, SocketChannel channel) {
+        this.handler = handler;
+        this.session = session;
+        this.in = in;
+        this.out = new BufferedOutputStream(out);
+        this.channel = channel;
+    }
+
+    // Serves frames until the client quits or disconnects
+    void run() throws IOException {
+        while (readFully(header, header.length)) {
+            if (!request.setHeader(header[0], headerView.getShort(1) & 0xFFFF, headerView.getInt(3))) {
+                reply.error("Frame too large.");
+                writeReply();
+                out.flush();
+                return; // the rest of the frame cannot be skipped reliably
+            }
+            if (!readFully(request.name, request.nameLength) || !readFully(request.payload, request.payloadLength)) {
+                return; // disconnected in the middle of a frame
+            }
+            if (channel == null || !handler.transfer(request, this::beginTransfer)) {
+                handler.handle(request, reply, session);
+                writeReply();
+            }
+            if (request.code == BinaryProtocol.QUIT) {
+                out.flush();
+                return;
+            }
+            if (in.available() == 0) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+
+    private void writeReply() throws IOException {
+        replyHeaderView.put(0, reply.code).putInt(1, reply.payloadLength);
+        out.write(replyHeader);
+        out.write(reply.payload, 0, reply.payloadLength);
+    }
+
+    // Sends the reply header of a zero-copy READ; the contents follow on the channel. Sizes the
+    // header cannot carry are declined, and handle() then answers with an error.
+    private WritableByteChannel beginTransfer(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            return null;
+        }
+        out.flush(); // earlier pipelined replies go first
+        replyHeaderView.clear();
+        replyHeaderView.put(0, BinaryProtocol.OK).putInt(1, (int) size);
+        while (replyHeaderView.hasRemaining()) {
+            channel.write(replyHeaderView);
+        }
+        return channel;
+    }
+
+    // False if the stream ends first
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        for (int done = 0; done < length; ) {
+            int read = in.read(buffer, done, length - done);
+            if (read < 0) {
+                return false;
+            }
+            done += read;
+        }
+        return true;
+    }
+}
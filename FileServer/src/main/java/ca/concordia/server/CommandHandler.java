@@ -0,0 +1,453 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileWriteChannel;
+import ca.concordia.filesystem.TransferTarget;
+import ca.concordia.metrics.LatencyHistogram;
+import ca.concordia.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs text-protocol command lines and binary-protocol frames against the filesystem.
+// Shared by every server mode so they all speak exactly the same protocols. With a metrics
+// registry, every command's latency, including any wait for the limiter, goes into the
+// histogram command.<NAME>, shared by both protocols.
+public class CommandHandler {
+
+    public static final String DISCONNECT = "SUCCESS: Disconnecting."; // reply to QUIT, the caller closes
+    private static final int MAX_TAG = 32;
+    private static final int ZERO_COPY_MIN_BYTES = 64 * 1024; // smaller files are cheaper to copy, and may be cached
+    // Indexed by binary opcode
+    private static final String[] COMMANDS = {null, "CREATE", "READ", "WRITE", "DELETE", "LIST", "QUIT",
+            "WRITE_BEGIN", "WRITE_CHUNK", "WRITE_END", "READ_RANGE", "WRITE_AT", "APPEND", "STATS"};
+
+    private final FileSystemManager fsManager;
+    private final ConcurrencyLimiter limiter; // null: no limit beyond the server's threads
+    private final MetricsRegistry metrics; // null: nothing is measured and STATS is refused
+    private final Map<String, LatencyHistogram> latencies = new HashMap<>(); // by command, fixed after construction
+    private final LatencyHistogram unknownLatency;
+    private final LongAdder errors;
+
+    public CommandHandler(FileSystemManager fsManager) {
+        this(fsManager, null);
+    }
+
+    public CommandHandler(FileSystemManager fsManager, ConcurrencyLimiter limiter) {
+        this(fsManager, limiter, null);
+    }
+
+    public CommandHandler(FileSystemManager fsManager, ConcurrencyLimiter limiter, MetricsRegistry metrics) {
+        this.fsManager = fsManager;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        if (metrics != null) {
+            for (int code = 1; code < COMMANDS.length; code++) {
+                latencies.put(COMMANDS[code], metrics.histogram("command." + COMMANDS[code]));
+            }
+        }
+        this.unknownLatency = metrics != null ? metrics.histogram("command.UNKNOWN") : null;
+        this.errors = metrics != null ? metrics.counter("command.errors") : null;
+    }
+
+    // Length of the optional "#<id> " tag in front of a pipelined text command, 0 when untagged.
+    // Servers strip the tag before handle() and put it back in front of the reply, so a client
+    // can match replies to requests; NIO mode also lets tagged commands finish out of order.
+    static int tagLength(String line) {
+        if (line.isEmpty() || line.charAt(0) != '#') {
+            return 0;
+        }
+        int space = line.indexOf(' ');
+        return space > 1 && space <= MAX_TAG ? space + 1 : 0;
+    }
+
+    // Without a session the streaming commands are refused
+    public String handle(String line) {
+        return handle(line, null);
+    }
+
+    String handle(String line, Session session) {
+        long start = System.nanoTime();
+        String response;
+        if (limiter == null) {
+            response = execute(line, session);
+        } else {
+            limiter.acquire();
+            try {
+                response = execute(line, session);
+            } finally {
+                limiter.release();
+            }
+        }
+        if (metrics != null) {
+            record(textCommand(line), start, response.startsWith("ERROR"));
+        }
+        return response;
+    }
+
+    // Binary protocol: runs a decoded request and fills in reply, whose payload stays valid until
+    // the next call with the same reply frame
+    void handle(Frame request, Frame reply, Session session) {
+        long start = System.nanoTime();
+        byte code = request.code;
+        if (limiter == null) {
+            execute(request, reply, session);
+        } else {
+            limiter.acquire();
+            try {
+                execute(request, reply, session);
+            } finally {
+                limiter.release();
+            }
+        }
+        if (metrics != null) {
+            record(code > 0 && code < COMMANDS.length ? COMMANDS[code] : null, start, reply.code == BinaryProtocol.ERROR);
+        }
+    }
+
+    // Binary READ of a large extent-based file, sent by target straight from the disk image.
+    // False when nothing was sent (small, chained or missing file): use handle() instead.
+    // An IOException means the connection broke, possibly part way through the contents.
+    boolean transfer(Frame request, TransferTarget target) throws IOException {
+        if (fsManager == null || request.code != BinaryProtocol.READ) {
+            return false;
+        }
+        long start = System.nanoTime();
+        if (limiter != null) {
+            limiter.acquire();
+        }
+        try {
+            boolean sent = fsManager.transferFile(request.name(), ZERO_COPY_MIN_BYTES, target);
+            if (sent && metrics != null) {
+                record("READ", start, false);
+            }
+            return sent;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            return false; // handle() produces the error reply
+        } finally {
+            if (limiter != null) {
+                limiter.release();
+            }
+        }
+    }
+
+    private void execute(Frame request, Frame reply, Session session) {
+        if (fsManager == null) {
+            reply.error("Filesystem not initialized");
+            return;
+        }
+        try {
+            switch (request.code) {
+                case BinaryProtocol.CREATE:
+                    fsManager.createFile(request.name());
+                    reply.ok();
+                    break;
+                case BinaryProtocol.READ:
+                    byte[] data = fsManager.readFile(request.name());
+                    reply.ok(data, data.length);
+                    break;
+                case BinaryProtocol.WRITE:
+                    fsManager.writeFile(request.name(), request.payload, request.payloadLength);
+                    reply.ok();
+                    break;
+                case BinaryProtocol.DELETE:
+                    fsManager.deleteFile(request.name());
+                    reply.ok();
+                    break;
+                case BinaryProtocol.LIST:
+                    byte[] names = String.join("\n", fsManager.listFiles()).getBytes(StandardCharsets.UTF_8);
+                    reply.ok(names, names.length);
+                    break;
+                case BinaryProtocol.QUIT:
+                    reply.ok();
+                    break;
+                case BinaryProtocol.WRITE_BEGIN:
+                    if (request.payloadLength != Long.BYTES) {
+                        reply.error("Size required.");
+                        break;
+                    }
+                    session.begin(fsManager.openWrite(request.name(), ByteBuffer.wrap(request.payload).getLong()));
+                    reply.ok();
+                    break;
+                case BinaryProtocol.WRITE_CHUNK:
+                    writeChunk(session, request.name(), ByteBuffer.wrap(request.payload, 0, request.payloadLength));
+                    reply.ok();
+                    break;
+                case BinaryProtocol.WRITE_END:
+                    endWrite(session, request.name());
+                    reply.ok();
+                    break;
+                case BinaryProtocol.READ_RANGE:
+                    if (request.payloadLength != Long.BYTES + Integer.BYTES) {
+                        reply.error("Offset and length required.");
+                        break;
+                    }
+                    ByteBuffer range = ByteBuffer.wrap(request.payload, 0, request.payloadLength);
+                    byte[] bytes = fsManager.readFile(request.name(), range.getLong(), range.getInt());
+                    reply.ok(bytes, bytes.length);
+                    break;
+                case BinaryProtocol.WRITE_AT:
+                    if (request.payloadLength < Long.BYTES) {
+                        reply.error("Offset required.");
+                        break;
+                    }
+                    fsManager.writeFile(request.name(), ByteBuffer.wrap(request.payload).getLong(),
+                            Arrays.copyOfRange(request.payload, Long.BYTES, request.payloadLength));
+                    reply.ok();
+                    break;
+                case BinaryProtocol.APPEND:
+                    fsManager.appendFile(request.name(), Arrays.copyOf(request.payload, request.payloadLength));
+                    reply.ok();
+                    break;
+                case BinaryProtocol.STATS:
+                    if (metrics == null) {
+                        reply.error("Metrics are not enabled.");
+                        break;
+                    }
+                    byte[] stats = formatStats("\n").getBytes(StandardCharsets.UTF_8);
+                    reply.ok(stats, stats.length);
+                    break;
+                default:
+                    reply.error("Unknown opcode " + request.code + ".");
+            }
+        } catch (Exception e) {
+            reply.error(e.getMessage());
+        }
+    }
+
+    private String execute(String line, Session session) {
+        try {
+            // Trim and validate command
+            if (line == null ){
+                return "ERROR: empty command";
+            }
+            line=line.trim();
+            if(line.isEmpty()){
+                return "ERROR: Empty command";
+            }
+
+            if(fsManager == null){
+                return "ERROR: Filesystem not initialized";
+            }
+
+            String[] parts = line.split(" ");
+            String command = parts[0].toUpperCase();
+
+            switch (command) {
+                case "CREATE":
+                    if (parts.length < 2) {
+                        return "ERROR: Filename required.";
+                    }
+                   try {
+                        fsManager.createFile(parts[1]);
+                        return "SUCCESS: File '" + parts[1] + "' created.";
+                   } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                   }
+
+                case "READ":
+                    if (parts.length < 2) {
+                        return "ERROR: Filename required.";
+                    }
+                    try {
+                        byte[] data = fsManager.readFile(parts[1]);
+                        if (data == null) {
+                            return "ERROR: File not found.";
+                        }
+                        //Convert bytes to string using UTF-8
+                        String content = new String(data, StandardCharsets.UTF_8);
+                        return "SUCCESS: " + content;
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "WRITE":
+                    if (parts.length < 3) {
+                        return "ERROR: Filename and data required.";
+                    }
+                    try {
+                        String fileName = parts[1];
+                        String dataStr = line.substring(line.indexOf(fileName) + fileName.length()).trim();
+                        byte[] data = dataStr.getBytes(); // Convert string to bytes
+                        fsManager.writeFile(fileName, data);
+                        return "SUCCESS: File '" + fileName + "' written with: " + new String(data, StandardCharsets.UTF_8);
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "DELETE":
+                    if (parts.length < 2) {
+                        return "ERROR: Filename required.";
+                    }
+                    try {
+                        fsManager.deleteFile(parts[1]);
+                        return "SUCCESS: File '" + parts[1] + "' deleted.";
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+                case "LIST":
+                    try {
+                        String[] files = fsManager.listFiles();
+                        return "SUCCESS: Files found: " + String.join(", ", files);
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+                case "WRITE_BEGIN":
+                    if (parts.length < 3) {
+                        return "ERROR: Filename and size required.";
+                    }
+                    if (session == null) {
+                        return "ERROR: Streaming writes need a connection.";
+                    }
+                    try {
+                        long size = Long.parseLong(parts[2]);
+                        session.begin(fsManager.openWrite(parts[1], size));
+                        return "SUCCESS: Ready for " + size + " bytes of '" + parts[1] + "'.";
+                    } catch (NumberFormatException e) {
+                        return "ERROR: Invalid size.";
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "WRITE_CHUNK":
+                    if (parts.length < 3) {
+                        return "ERROR: Filename and data required.";
+                    }
+                    try {
+                        // Text chunks are the rest of the line after one space; like WRITE, they cannot
+                        // start or end with whitespace. Binary frames carry any bytes.
+                        String chunk = line.substring(parts[0].length() + parts[1].length() + 2);
+                        long position = writeChunk(session, parts[1], ByteBuffer.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+                        return "SUCCESS: " + position + " bytes of '" + parts[1] + "' received.";
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "WRITE_END":
+                    if (parts.length < 2) {
+                        return "ERROR: Filename required.";
+                    }
+                    try {
+                        long size = endWrite(session, parts[1]);
+                        return "SUCCESS: File '" + parts[1] + "' written with " + size + " bytes.";
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "READ_RANGE":
+                    if (parts.length < 4) {
+                        return "ERROR: Filename, offset and length required.";
+                    }
+                    try {
+                        byte[] data = fsManager.readFile(parts[1], Long.parseLong(parts[2]), Integer.parseInt(parts[3]));
+                        return "SUCCESS: " + new String(data, StandardCharsets.UTF_8);
+                    } catch (NumberFormatException e) {
+                        return "ERROR: Invalid offset or length.";
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "WRITE_AT":
+                    if (parts.length < 4) {
+                        return "ERROR: Filename, offset and data required.";
+                    }
+                    try {
+                        long offset = Long.parseLong(parts[2]);
+                        String dataStr = line.substring(parts[0].length() + parts[1].length() + parts[2].length() + 3);
+                        fsManager.writeFile(parts[1], offset, dataStr.getBytes(StandardCharsets.UTF_8));
+                        return "SUCCESS: File '" + parts[1] + "' written at " + offset + " with: " + dataStr;
+                    } catch (NumberFormatException e) {
+                        return "ERROR: Invalid offset.";
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "APPEND":
+                    if (parts.length < 3) {
+                        return "ERROR: Filename and data required.";
+                    }
+                    try {
+                        String dataStr = line.substring(parts[0].length() + parts[1].length() + 2);
+                        fsManager.appendFile(parts[1], dataStr.getBytes(StandardCharsets.UTF_8));
+                        return "SUCCESS: File '" + parts[1] + "' appended with: " + dataStr;
+                    } catch (Exception e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+
+                case "STATS":
+                    if (metrics == null) {
+                        return "ERROR: Metrics are not enabled.";
+                    }
+                    return "SUCCESS: " + formatStats(" ");
+
+                case "QUIT":
+                    return DISCONNECT;
+                default:
+                    return "ERROR: Unknown command.";
+          }
+        } catch (Exception perLException) {
+            return "ERROR: Malformed input" + perLException.getMessage();
+        }
+    }
+
+    // Only known command names get a histogram of their own, whatever clients send
+    private static String textCommand(String line) {
+        String trimmed = line == null ? "" : line.trim();
+        int space = trimmed.indexOf(' ');
+        return (space == -1 ? trimmed : trimmed.substring(0, space)).toUpperCase();
+    }
+
+    private void record(String command, long start, boolean failed) {
+        LatencyHistogram latency = command != null ? latencies.get(command) : null;
+        (latency != null ? latency : unknownLatency).recordSince(start);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    // Every metric as name=value, separated by separator
+    private String formatStats(String separator) {
+        StringBuilder stats = new StringBuilder();
+        metrics.snapshot().forEach((name, value) -> {
+            if (stats.length() > 0) {
+                stats.append(separator);
+            }
+            stats.append(name).append('=').append(value);
+        });
+        return stats.toString();
+    }
+
+    // Appends to the session's streaming write to fileName and returns the bytes written so far.
+    // A failed chunk abandons the whole write.
+    private long writeChunk(Session session, String fileName, ByteBuffer chunk) throws Exception {
+        FileWriteChannel write = session != null ? session.get(fileName) : null;
+        if (write == null) {
+            throw new Exception("No write in progress for '" + fileName + "'.");
+        }
+        try {
+            write.write(chunk);
+            return write.position();
+        } catch (IOException e) {
+            session.finish(fileName);
+            write.abort();
+            throw e;
+        }
+    }
+
+    // Publishes the session's streaming write to fileName and returns its size
+    private long endWrite(Session session, String fileName) throws Exception {
+        FileWriteChannel write = session != null ? session.finish(fileName) : null;
+        if (write == null) {
+            throw new Exception("No write in progress for '" + fileName + "'.");
+        }
+        write.close();
+        return write.size();
+    }
+}
@@ -0,0 +1,49 @@
+package ca.concordia.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bounds how many commands run against the filesystem at once, whatever the number of connection
+// threads. Excess callers wait in arrival order; on a virtual thread that wait costs no OS thread.
+public class ConcurrencyLimiter {
+
+    private final int permits;
+    private final Semaphore semaphore;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    public ConcurrencyLimiter(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("At least one concurrent operation is required.");
+        }
+        this.permits = permits;
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    public void acquire() {
+        semaphore.acquireUninterruptibly();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+        semaphore.release();
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    // Callers currently waiting for a permit
+    public int getQueueLength() {
+        return semaphore.getQueueLength();
+    }
+}
@@ -1,35 +1,82 @@
 package ca.concordia.server;
 
+import ca.concordia.filesystem.FileCache;
+import ca.concordia.filesystem.FileSystemConfig;
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.storage.BlockCache;
+import ca.concordia.filesystem.storage.IoScheduler;
+import ca.concordia.filesystem.storage.StorageBackend;
+import ca.concordia.logging.Logger;
+import ca.concordia.metrics.MetricsMBean;
+import ca.concordia.metrics.MetricsRegistry;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.IIOException;
+import javax.management.JMException;
 import javax.xml.namespace.QName;
 
 public class FileServer {
 
+    private static final Logger log = Logger.get(FileServer.class);
+
     private FileSystemManager fsManager;
     private int port;
+    private final ServerMode mode;
+    private final CommandHandler commandHandler;
+    private final ConcurrencyLimiter limiter; // commands running against the filesystem at once
+    private final MetricsRegistry metrics = new MetricsRegistry(); // also served by STATS and over JMX
+
+    // NIO mode: a few event loops for every connection, filesystem work on a small pool
+    private static final int EVENT_LOOPS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int NIO_WORKERS = 32;
+    public static final int DEFAULT_MAX_OPERATIONS = 64;
 
     // Handles client connections (threads)
     private final ThreadPoolExecutor pool;
+    private final ExecutorService virtualThreads; // VIRTUAL mode only
 
     //Generate unique thread ID's for naming
     private final AtomicInteger threadNumber = new AtomicInteger(1);
 
-    public FileServer(int port, String fileSystemName, int totalSize) {
+    public FileServer(int port, String fileSystemName, long totalSize) {
+        this(port, fileSystemName, totalSize, StorageBackend.CHANNEL);
+    }
+
+    public FileServer(int port, String fileSystemName, long totalSize, StorageBackend backend) {
+        this(port, fileSystemName, totalSize, new FileSystemConfig().setBackend(backend));
+    }
+
+    public FileServer(int port, String fileSystemName, long totalSize, FileSystemConfig config) {
+        this(port, fileSystemName, totalSize, config, ServerMode.THREAD_POOL);
+    }
+
+    public FileServer(int port, String fileSystemName, long totalSize, FileSystemConfig config, ServerMode mode) {
+        this(port, fileSystemName, totalSize, config, mode, DEFAULT_MAX_OPERATIONS);
+    }
+
+    public FileServer(int port, String fileSystemName, long totalSize, FileSystemConfig config, ServerMode mode,
+                      int maxOperations) {
+        // Before the image is opened, so an unsupported mode fails here rather than in start()
+        this.virtualThreads = mode == ServerMode.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
         // Initialize the FileSystemManager
-        this.fsManager = FileSystemManager.getInstance(fileSystemName, totalSize);
+        this.fsManager = FileSystemManager.getInstance(fileSystemName, totalSize, config);
         this.port = port;
+        this.mode = mode;
+        this.limiter = new ConcurrencyLimiter(maxOperations);
+        this.commandHandler = new CommandHandler(fsManager, limiter, metrics);
 
         // ThreadPool configuration
         int poolSize = 50; // min threads
@@ -48,9 +95,10 @@ public class FileServer {
         // Notifies client when server is saturated
         RejectedExecutionHandler rejectedHandler = (r, executor) -> {
             if (r instanceof ClientTask) {
+                metrics.counter("pool.rejected").increment();
                 ((ClientTask) r).reject(); // server busy, close socket
             } else {
-                System.err.println("Task " + r.toString() + " rejected ");
+                log.warn("Task rejected", "task", r.toString());
             }
         };
 
@@ -64,6 +112,7 @@ public class FileServer {
                 rejectedHandler
         );
         this.pool.allowCoreThreadTimeOut(true); // Allow core threads to time out
+        registerMetrics();
 
         //Ensure filesystem is closed on shutdown
         Runtime.getRuntime().addShutdownHook( new Thread(() -> {
@@ -76,18 +125,20 @@ public class FileServer {
     }
 
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(12345)) {
-            System.out.println("Server started. Listening on port 12345...");
-
-            while (true) {
-                //accepts client request and hand it off to client handler
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Handling client: " + clientSocket);
-                this.pool.execute(new ClientTask(clientSocket));
+        try {
+            if (mode == ServerMode.NIO) {
+                new NioServer(port, commandHandler, EVENT_LOOPS, NIO_WORKERS, metrics).run();
+            } else if (mode == ServerMode.VIRTUAL) {
+                try {
+                    acceptConnections(virtualThreads);
+                } finally {
+                    virtualThreads.shutdown();
+                }
+            } else {
+                acceptConnections(this.pool);
             }
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Could not start server on port " + port);
+            log.error("Could not start server", "port", port, "error", e.toString());
         } finally {
             //ensure pool shutdown and filesystem closed
             try {this.pool.shutdown();
@@ -97,15 +148,93 @@ public class FileServer {
                 this.fsManager.close();
             }
         } catch (Exception e) {
-            System.err.println("Error closing FileSystemManager: " + e.getMessage());
+            log.error("Error closing FileSystemManager", "error", e.getMessage());
         }
      }
  }
 
+    // Accepted through a channel, so each blocking socket also has a SocketChannel for zero-copy reads
+    private void acceptConnections(Executor executor) throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 50);
+            log.info("Server started", "port", port, "mode", mode);
+
+            while (true) {
+                //accepts client request and hand it off to client handler
+                Socket clientSocket = serverChannel.accept().socket();
+                executor.execute(new ClientTask(clientSocket));
+            }
+        }
+    }
+
+    // Looked up reflectively so the server still builds and runs its other modes on Java 17;
+    // throws UnsupportedOperationException on older runtimes
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual thread mode requires Java 21 or newer.", e);
+        }
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    // Gauges read the counters the filesystem, caches and limiter already keep
+    private void registerMetrics() {
+        metrics.gauge("fs.bytes.read", fsManager::getBytesRead);
+        metrics.gauge("fs.bytes.written", fsManager::getBytesWritten);
+        metrics.histogram("fs.lock.wait", fsManager.getLockWaitHistogram());
+        metrics.histogram("fs.sync", fsManager.getSyncLatency());
+        BlockCache blockCache = fsManager.getBlockCache();
+        if (blockCache != null) {
+            metrics.gauge("cache.block.hits", blockCache::getHits);
+            metrics.gauge("cache.block.misses", blockCache::getMisses);
+            metrics.gauge("cache.block.evictions", blockCache::getEvictions);
+        }
+        FileCache fileCache = fsManager.getFileCache();
+        if (fileCache != null) {
+            metrics.gauge("cache.file.hits", fileCache::getHits);
+            metrics.gauge("cache.file.misses", fileCache::getMisses);
+            metrics.gauge("cache.file.bytes", fileCache::getUsedBytes);
+        }
+        IoScheduler ioScheduler = fsManager.getIoScheduler();
+        if (ioScheduler != null) {
+            metrics.gauge("io.requests", ioScheduler::getRequestCount);
+            metrics.gauge("io.disk_calls", ioScheduler::getDiskCallCount);
+            metrics.gauge("io.batches", ioScheduler::getBatchCount);
+        }
+        metrics.gauge("limiter.in_flight", limiter::getInFlight);
+        metrics.gauge("limiter.peak_in_flight", limiter::getPeakInFlight);
+        metrics.gauge("limiter.queued", limiter::getQueueLength);
+        if (mode == ServerMode.THREAD_POOL) {
+            registerPool(metrics, pool);
+            metrics.counter("pool.rejected");
+        }
+        try {
+            MetricsMBean.register(metrics);
+        } catch (JMException e) {
+            log.warn("Could not register the metrics MBean", "error", e.getMessage());
+        }
+    }
+
+    static void registerPool(MetricsRegistry metrics, ThreadPoolExecutor pool) {
+        metrics.gauge("pool.threads", pool::getPoolSize);
+        metrics.gauge("pool.active", pool::getActiveCount);
+        metrics.gauge("pool.queued", () -> pool.getQueue().size());
+        metrics.gauge("pool.completed", pool::getCompletedTaskCount);
+    }
+
     // Handles each working threads
     private class ClientTask implements Runnable {
 
         private final Socket clientSocket;
+        private final Session session = new Session();
         private boolean rejected = false;
 
         public ClientTask(Socket clientSocket) {
@@ -120,128 +249,31 @@ public class FileServer {
                 out.println("Server is busy. Please try again later.");
                 clientSocket.close();
             } catch (Exception e) {
-                e.printStackTrace();
+                log.warn("Could not turn away client", "client", clientSocket.getRemoteSocketAddress(), "error", e.getMessage());
             }
         }
 
         @Override
         public void run() {
             if (rejected) return ; // Task was rejected, do not proceed}
-            System.out.println(" Handling client in: " + Thread.currentThread().getName() + "-" + clientSocket);
-
-            try (
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream())); 
-                     PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)
-                ) {  String line;
-                     while ((line = reader.readLine()) != null) {
-                    System.out.println("Received from client: " + line);
-                    
-                    try {
-                    // Trim and validate command
-                    if (line == null ){
-                        writer.println("ERROR: empty command");
-                        continue;
-                    }
-                    line=line.trim();
-                    if(line.isEmpty()){
-                        writer.println("ERROR: Empty command");
-                        continue;
-                    }
-
-                    if(FileServer.this.fsManager == null){
-                        writer.println("ERROR: Filesystem not initialized");
-                        continue;
-                    }
-
-                    String[] parts = line.split(" ");
-                    String command = parts[0].toUpperCase();
-
-                    switch (command) {
-                        case "CREATE":
-                            if (parts.length < 2) {
-                                writer.println("ERROR: Filename required.");
-                                break;
-                            }
-                           try {
-                                fsManager.createFile(parts[1]);
-                                writer.println("SUCCESS: File '" + parts[1] + "' created.");
-                           } catch (Exception e) {
-                                writer.println("ERROR: " + e.getMessage());
-                           }
-                            break;
-
-                        case "READ":
-                            if (parts.length < 2) {
-                                writer.println("ERROR: Filename required.");
-                                break;
-                            }
-                            try {
-                                byte[] data = fsManager.readFile(parts[1]);
-                                if (data == null) {
-                                    writer.println("ERROR: File not found.");
-                                } else {
-                                    //Convert bytes to string using UTF-8
-                                    String content = new String(data, StandardCharsets.UTF_8);
-                                    writer.println("SUCCESS: " + content);
-                                }
-                            } catch (Exception e) {
-                                writer.println("ERROR: " + e.getMessage());
-                            }
-                            break;
-
-                        case "WRITE":
-                            if (parts.length < 3) {
-                                writer.println("ERROR: Filename and data required.");
-                                break;
-                            }
-                            try {
-                                String fileName = parts[1];
-                                String dataStr = line.substring(line.indexOf(fileName) + fileName.length()).trim();
-                                byte[] data = dataStr.getBytes(); // Convert string to bytes
-                                fsManager.writeFile(fileName, data);
-                                writer.println("SUCCESS: File '" + fileName + "' written with: " + new String(data, StandardCharsets.UTF_8));
-                            } catch (Exception e) {
-                                writer.println("ERROR: " + e.getMessage());
-                            }
-                            break;
-
-                        case "DELETE":
-                            if (parts.length < 2) {
-                                writer.println("ERROR: Filename required.");
-                                break;
-                            }
-                            try {
-                                fsManager.deleteFile(parts[1]);
-                                writer.println("SUCCESS: File '" + parts[1] + "' deleted.");
-                            } catch (Exception e) {
-                                writer.println("ERROR: " + e.getMessage());
-                            }
-                            break;
-                        case "LIST":
-                            try {
-                                String[] files = fsManager.listFiles();
-                                writer.println("SUCCESS: Files found: " + String.join(", ", files));
-                            } catch (Exception e) {
-                                writer.println("ERROR: " + e.getMessage());
-                            }
-                            break;
-                        case "QUIT":
-                            writer.println("SUCCESS: Disconnecting.");
-                            return;
-                        default:
-                            writer.println("ERROR: Unknown command.");
-                            break;
-                  }
-                    } catch (Exception perLException) {
-                        writer.println("ERROR: Malformed input" + perLException.getMessage());
-                    }
+            log.debug("Handling client", "client", clientSocket.getRemoteSocketAddress());
+
+            try {
+                // The first byte picks the protocol; text clients get it back through the reader
+                InputStream input = new BufferedInputStream(clientSocket.getInputStream());
+                input.mark(1);
+                if (input.read() == BinaryProtocol.HANDSHAKE) {
+                    new BinarySession(commandHandler, session, input, clientSocket.getOutputStream(), clientSocket.getChannel()).run();
+                    return;
                 }
-                
+                input.reset();
+                serveText(input);
             } catch (IOException e) {
-                System.err.println("I/O error handling client: " + clientSocket + " " + e.getMessage());
+                log.warn("I/O error handling client", "client", clientSocket.getRemoteSocketAddress(), "error", e.getMessage());
             }  catch (RuntimeException e) {
-                System.err.println("Runtime error handling client: "+ clientSocket + e.getMessage());
+                log.error("Runtime error handling client", "client", clientSocket.getRemoteSocketAddress(), "error", e.toString());
             } finally {
+                session.close(); // unfinished streaming writes are dropped
                 try {
                     clientSocket.close();
                 } catch (IOException ignored) {
@@ -249,6 +281,29 @@ public class FileServer {
                 }
             }
         }
+
+        // Commands are answered in order. Replies are flushed only once no further pipelined command
+        // is already buffered, so a burst of commands costs one write rather than one per reply.
+        private void serveText(InputStream input) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream())));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log.debug("Received from client", "line", line);
+
+                int tagLength = CommandHandler.tagLength(line);
+                String response = commandHandler.handle(line.substring(tagLength), session);
+                writer.println(tagLength == 0 ? response : line.substring(0, tagLength) + response);
+                if (response == CommandHandler.DISCONNECT) {
+                    writer.flush();
+                    return;
+                }
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        }
     }
 
 }
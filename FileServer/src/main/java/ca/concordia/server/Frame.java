@@ -0,0 +1,56 @@
+package ca.concordia.server;
+
+import java.nio.charset.StandardCharsets;
+
+// One binary-protocol frame. A connection keeps a request and a reply frame for its whole life and
+// decodes every request into the same buffers, so parsing allocates nothing once the payload
+// buffer has grown to the connection's largest write.
+final class Frame {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    byte code; // opcode of a request, status of a reply
+    final byte[] name = new byte[BinaryProtocol.MAX_NAME];
+    int nameLength;
+    byte[] payload; // owned by a request frame; a reply only references the bytes to send
+    int payloadLength;
+
+    Frame(int payloadCapacity) {
+        this.payload = payloadCapacity > 0 ? new byte[payloadCapacity] : EMPTY;
+    }
+
+    // Takes a decoded request header and makes room for its payload; false if the frame is too large
+    boolean setHeader(byte opcode, int nameLength, int payloadLength) {
+        if (nameLength > BinaryProtocol.MAX_NAME || payloadLength < 0 || payloadLength > BinaryProtocol.MAX_PAYLOAD) {
+            return false;
+        }
+        this.code = opcode;
+        this.nameLength = nameLength;
+        this.payloadLength = payloadLength;
+        if (payload.length < payloadLength) {
+            payload = new byte[Math.max(payloadLength, Math.min(BinaryProtocol.MAX_PAYLOAD, payload.length * 2))];
+        }
+        return true;
+    }
+
+    // The filesystem API is keyed by String, so this is the one allocation a request costs
+    String name() {
+        return new String(name, 0, nameLength, StandardCharsets.UTF_8);
+    }
+
+    void ok() {
+        ok(EMPTY, 0);
+    }
+
+    void ok(byte[] data, int length) {
+        code = BinaryProtocol.OK;
+        payload = data;
+        payloadLength = length;
+    }
+
+    void error(String message) {
+        code = BinaryProtocol.ERROR;
+        payload = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        payloadLength = payload.length;
+    }
+}
@@ -0,0 +1,437 @@
+package ca.concordia.server;
+
+import ca.concordia.logging.Logger;
+import ca.concordia.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking server mode. The calling thread accepts connections and deals them out to a few
+// event loops, each owning a Selector and all state of its connections. Loops only read, split
+// lines and write replies; commands run on a small worker pool so disk I/O never stalls a loop.
+// Clients may pipeline: untagged commands and binary frames run one at a time per connection, so
+// their replies come back in request order, while text commands tagged "#<id> " may run together
+// and reply as they finish. Replies are written once per loop iteration, so a burst of completions
+// costs one gathering write. An idle connection costs a buffer and a selection key rather than a
+// thread. Both the text protocol and, after its handshake byte, the binary protocol are served.
+class NioServer {
+
+    private static final Logger log = Logger.get(NioServer.class);
+
+    private static final int MAX_LINE = 16 * 1024 * 1024; // longer lines are rejected and the connection closed
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final int MAX_TAGGED_IN_FLIGHT = 16; // per connection
+    private static final int WRITE_BATCH = 64; // buffers per gathering write
+
+    private final int port;
+    private final CommandHandler handler;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+
+    NioServer(int port, CommandHandler handler, int eventLoops, int workerThreads, MetricsRegistry metrics) {
+        this.port = port;
+        this.handler = handler;
+        this.loops = new EventLoop[eventLoops];
+        AtomicInteger workerNumber = new AtomicInteger(1);
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(workerThreads,
+                r -> new Thread(r, "FileServer-NioWorker-" + workerNumber.getAndIncrement()));
+        if (metrics != null) {
+            FileServer.registerPool(metrics, pool);
+        }
+        this.workers = pool;
+    }
+
+    // Blocks accepting connections until the server socket fails
+    void run() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), 1024);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+                Thread thread = new Thread(loops[i], "FileServer-EventLoop-" + (i + 1));
+                thread.setDaemon(true);
+                thread.start();
+            }
+            log.info("Server started", "port", port, "mode", ServerMode.NIO);
+
+            for (int next = 0; ; next = (next + 1) % loops.length) {
+                SocketChannel client = server.accept();
+                client.configureBlocking(false);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(client);
+            }
+        } finally {
+            workers.shutdown();
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.stop();
+                }
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // work handed in by other threads
+        private final ArrayDeque<Connection> flushes = new ArrayDeque<>(); // connections with replies to write
+        private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+        private volatile boolean running = true;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        // Runs task on this loop's thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel client) {
+            execute(() -> {
+                try {
+                    SelectionKey key = client.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, client, key));
+                } catch (ClosedChannelException e) {
+                    // client went away before it was registered
+                }
+            });
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (connection == null) {
+                            continue;
+                        }
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                    Connection connection;
+                    while ((connection = flushes.poll()) != null) {
+                        connection.flushScheduled = false;
+                        try {
+                            connection.flush();
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Event loop failed", "error", e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // State of one client, only touched by its event loop thread
+    private final class Connection {
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(1024); // write mode: [0, position) is unparsed input
+        private int scanned; // bytes of in already searched for a newline
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private int inFlight; // commands running on workers
+        private boolean ordered; // the running command is untagged, nothing may start beside it
+        private String pending; // next line, waiting for the running commands to allow it
+        private boolean flushScheduled;
+        private boolean closing; // close once out is drained and nothing is in flight
+        private boolean inputClosed; // client shut down its side; finish the queued lines, then close
+        private boolean negotiated; // the first byte has picked the protocol
+        private Frame request; // binary protocol only, reused for every frame
+        private Frame reply;
+        private final Session session = new Session(); // used by workers, one command at a time per file
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            log.debug("Handling client", "client", channel.socket().getRemoteSocketAddress());
+        }
+
+        void onReadable() throws IOException {
+            if (!in.hasRemaining()) {
+                if (inFlight > 0) {
+                    key.interestOps(0); // enough queued input, resume once the running commands reply
+                    return;
+                }
+                int limit = request != null ? BinaryProtocol.MAX_FRAME : MAX_LINE;
+                if (in.capacity() >= limit) {
+                    reply("ERROR: Command too long.");
+                    closing = true;
+                    flush();
+                    return;
+                }
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(limit, in.capacity() * 2));
+                in.flip();
+                grown.put(in);
+                in = grown;
+            }
+            if (channel.read(in) < 0) {
+                inputClosed = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            dispatchNext();
+        }
+
+        // Hands complete lines or frames to workers as far as the running commands allow
+        private void dispatchNext() {
+            if (closing) {
+                return;
+            }
+            if (!negotiated && in.position() > 0) {
+                negotiated = true;
+                if ((in.get(0) & 0xFF) == BinaryProtocol.HANDSHAKE) {
+                    request = new Frame(in.capacity());
+                    reply = new Frame(0);
+                    consume(1);
+                }
+            }
+            if (request != null) {
+                if (inFlight == 0) {
+                    dispatchFrame();
+                }
+                return;
+            }
+            while (!ordered) {
+                if (pending == null && (pending = nextLine()) == null) {
+                    if (inFlight == 0) {
+                        finishIfInputClosed();
+                    }
+                    return;
+                }
+                int tagLength = CommandHandler.tagLength(pending);
+                if (inFlight > 0 && (tagLength == 0 || inFlight >= MAX_TAGGED_IN_FLIGHT)) {
+                    return; // an untagged command waits for everything before it
+                }
+                String line = pending;
+                pending = null;
+                inFlight++;
+                ordered = tagLength == 0;
+                workers.execute(() -> {
+                    log.debug("Received from client", "line", line);
+                    String response = handler.handle(line.substring(tagLength), session);
+                    loop.execute(() -> complete(line.substring(0, tagLength), response));
+                });
+            }
+        }
+
+        private void dispatchFrame() {
+            int available = in.position();
+            if (available < BinaryProtocol.REQUEST_HEADER_BYTES) {
+                finishIfInputClosed();
+                return;
+            }
+            if (!request.setHeader(in.get(0), in.getShort(1) & 0xFFFF, in.getInt(3))) {
+                reply.error("Frame too large.");
+                replyFrame();
+                closing = true;
+                try {
+                    flush();
+                } catch (IOException e) {
+                    close();
+                }
+                return;
+            }
+            int nameStart = BinaryProtocol.REQUEST_HEADER_BYTES;
+            int payloadStart = nameStart + request.nameLength;
+            int frameLength = payloadStart + request.payloadLength;
+            if (available < frameLength) {
+                finishIfInputClosed(); // a frame cut short by the client is dropped
+                return;
+            }
+            in.get(nameStart, request.name, 0, request.nameLength);
+            in.get(payloadStart, request.payload, 0, request.payloadLength);
+            consume(frameLength);
+            inFlight++;
+            workers.execute(() -> {
+                handler.handle(request, reply, session);
+                loop.execute(this::completeFrame);
+            });
+        }
+
+        // Drops the first n bytes of unparsed input
+        private void consume(int n) {
+            in.flip();
+            in.position(n);
+            in.compact();
+            scanned = 0;
+        }
+
+        private void finishIfInputClosed() {
+            if (inputClosed) {
+                closing = true;
+                try {
+                    flush();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        private String nextLine() {
+            int end = in.position();
+            for (int i = scanned; i < end; i++) {
+                if (in.get(i) == '\n') {
+                    int length = i > 0 && in.get(i - 1) == '\r' ? i - 1 : i;
+                    String line = new String(in.array(), 0, length, StandardCharsets.UTF_8);
+                    consume(i + 1);
+                    return line;
+                }
+            }
+            scanned = end;
+            if (inputClosed && end > 0) {
+                // Last line without a newline, as BufferedReader.readLine() would return it
+                String line = new String(in.array(), 0, end, StandardCharsets.UTF_8);
+                in.clear();
+                scanned = 0;
+                return line;
+            }
+            return null;
+        }
+
+        private void complete(String tag, String response) {
+            inFlight--;
+            ordered = false;
+            if (!channel.isOpen()) {
+                return;
+            }
+            reply(tag.isEmpty() ? response : tag + response);
+            if (response == CommandHandler.DISCONNECT) {
+                closing = true;
+            }
+            afterReply();
+        }
+
+        private void completeFrame() {
+            inFlight--;
+            if (!channel.isOpen()) {
+                return;
+            }
+            replyFrame();
+            if (request.code == BinaryProtocol.QUIT) {
+                closing = true;
+            }
+            afterReply();
+        }
+
+        private void afterReply() {
+            dispatchNext();
+            if (!flushScheduled) {
+                flushScheduled = true;
+                loop.flushes.add(this);
+            }
+        }
+
+        private void reply(String response) {
+            byte[] text = response.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(text.length + NEWLINE.length);
+            buffer.put(text).put(NEWLINE).flip();
+            out.add(buffer);
+        }
+
+        private void replyFrame() {
+            ByteBuffer header = ByteBuffer.allocate(BinaryProtocol.REPLY_HEADER_BYTES);
+            header.put(reply.code).putInt(reply.payloadLength).flip();
+            out.add(header);
+            if (reply.payloadLength > 0) {
+                out.add(ByteBuffer.wrap(reply.payload, 0, reply.payloadLength));
+            }
+        }
+
+        void flush() throws IOException {
+            if (!key.isValid()) {
+                return; // closed since the flush was scheduled
+            }
+            ByteBuffer[] batch = loop.batch;
+            while (!out.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : out) {
+                    if (count == batch.length) {
+                        break;
+                    }
+                    batch[count++] = buffer;
+                }
+                channel.write(batch, 0, count);
+                boolean full = batch[count - 1].hasRemaining();
+                Arrays.fill(batch, 0, count, null);
+                while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                    out.poll();
+                }
+                if (full) {
+                    key.interestOps(SelectionKey.OP_WRITE); // socket full: stop reading until it drains
+                    return;
+                }
+            }
+            if (closing && inFlight == 0) {
+                close();
+            } else {
+                key.interestOps(closing || inputClosed ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            if (session.hasWrites()) {
+                workers.execute(session::close); // abandoning a write frees blocks, which is disk work
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package ca.concordia.server;
+
+// How FileServer maps client connections onto threads
+public enum ServerMode {
+    THREAD_POOL, // one pooled worker thread per connection for its whole life
+    NIO,         // a few selector event loops for all connections, a small pool for filesystem work
+    VIRTUAL      // one virtual thread per connection (Java 21+), no thread or queue cap
+}
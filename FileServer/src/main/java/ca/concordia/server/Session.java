@@ -0,0 +1,48 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.FileWriteChannel;
+import ca.concordia.logging.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// What a connection keeps between commands: its unfinished streaming writes, by file name.
+// Closing the session aborts them, so a dropped connection never publishes a partial file.
+class Session {
+
+    private static final Logger log = Logger.get(Session.class);
+
+    private final Map<String, FileWriteChannel> writes = new ConcurrentHashMap<>();
+
+    // Starts a streaming write, abandoning an earlier unfinished one to the same file
+    void begin(FileWriteChannel write) throws IOException {
+        FileWriteChannel previous = writes.put(write.getFileName(), write);
+        if (previous != null) {
+            previous.abort();
+        }
+    }
+
+    FileWriteChannel get(String fileName) {
+        return writes.get(fileName);
+    }
+
+    FileWriteChannel finish(String fileName) {
+        return writes.remove(fileName);
+    }
+
+    boolean hasWrites() {
+        return !writes.isEmpty();
+    }
+
+    void close() {
+        for (FileWriteChannel write : writes.values()) {
+            try {
+                write.abort();
+            } catch (IOException e) {
+                log.warn("Could not abandon a streaming write", "file", write.getFileName(), "error", e.getMessage());
+            }
+        }
+        writes.clear();
+    }
+}
@@ -0,0 +1,269 @@
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.storage.DiskStorage;
+import ca.concordia.filesystem.storage.IoScheduler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncIoTests {
+
+    @TempDir
+    Path dir;
+
+    // In-memory image that counts calls, fails I/O at failAt, and holds its first write until released
+    private static class MemoryDisk implements DiskStorage {
+        final byte[] bytes = new byte[4 * 1024 * 1024];
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+        volatile int largestCall;
+        final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile long failAt = -1;
+
+        @Override
+        public void read(long position, byte[] buffer, int offset, int length) throws IOException {
+            reads.incrementAndGet();
+            largestCall = Math.max(largestCall, length);
+            check(position, length);
+            System.arraycopy(bytes, (int) position, buffer, offset, length);
+        }
+
+        @Override
+        public void write(long position, byte[] buffer, int offset, int length) throws IOException {
+            if (writes.incrementAndGet() == 1) {
+                firstWriteStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            largestCall = Math.max(largestCall, length);
+            check(position, length);
+            System.arraycopy(buffer, offset, bytes, (int) position, length);
+        }
+
+        private void check(long position, int length) throws IOException {
+            if (failAt >= position && failAt < position + length) {
+                throw new IOException("Bad sector at " + failAt);
+            }
+        }
+
+        @Override
+        public long size() {
+            return bytes.length;
+        }
+
+        @Override
+        public void setLength(long length) {
+        }
+
+        @Override
+        public void force() {
+        }
+
+        @Override
+        public FileChannel channel() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    // Holds the I/O thread in its first write so everything submitted meanwhile forms one batch
+    private static CompletableFuture<Void> stall(IoScheduler scheduler, MemoryDisk disk) throws InterruptedException {
+        CompletableFuture<Void> first = scheduler.write(60 * 1024, new byte[1], 0, 1);
+        assertTrue(disk.firstWriteStarted.await(5, TimeUnit.SECONDS));
+        return first;
+    }
+
+    @Test
+    @Timeout(10)
+    void testBatchIsSortedAndMergedByOffset() throws Exception {
+        MemoryDisk disk = new MemoryDisk();
+        IoScheduler scheduler = new IoScheduler(disk);
+        CompletableFuture<Void> first = stall(scheduler, disk);
+
+        // Eight adjacent 1 KB writes submitted out of order, then an overlapping later write
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i : new int[]{5, 2, 7, 0, 3, 6, 1, 4}) {
+            futures.add(scheduler.write(i * 1024L, filled(1024, i + 1), 0, 1024));
+        }
+        futures.add(scheduler.write(1000, filled(100, 99), 0, 100));
+        // A separate run further on, and two adjacent reads of it
+        futures.add(scheduler.write(32 * 1024, filled(512, 42), 0, 512));
+        byte[] low = new byte[256];
+        byte[] high = new byte[256];
+        futures.add(scheduler.read(32 * 1024 + 256, high, 0, 256));
+        futures.add(scheduler.read(32 * 1024, low, 0, 256));
+
+        disk.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1 + 2, disk.writes.get()); // the stalled write, then one per run
+        assertEquals(1, disk.reads.get());
+        assertEquals(1, disk.bytes[999]);
+        assertEquals(99, disk.bytes[1000]);
+        assertEquals(99, disk.bytes[1099]); // the later overlapping write won
+        assertEquals(2, disk.bytes[1100]);
+        assertEquals(8, disk.bytes[8 * 1024 - 1]);
+        assertArrayEquals(filled(256, 42), low); // reads see the writes of their batch
+        assertArrayEquals(filled(256, 42), high);
+
+        assertEquals(1 + futures.size(), scheduler.getRequestCount());
+        assertEquals(1 + 3, scheduler.getDiskCallCount());
+        assertEquals(2, scheduler.getBatchCount());
+        scheduler.close();
+        assertThrows(Exception.class, () -> scheduler.read(0, new byte[1], 0, 1).join());
+    }
+
+    @Test
+    @Timeout(10)
+    void testOverlappingReadsAndWritesKeepSubmissionOrder() throws Exception {
+        MemoryDisk disk = new MemoryDisk();
+        Arrays.fill(disk.bytes, 0, 4096, (byte) 1);
+        IoScheduler scheduler = new IoScheduler(disk);
+        CompletableFuture<Void> first = stall(scheduler, disk);
+
+        byte[] before = new byte[1024];
+        byte[] after = new byte[1024];
+        byte[] untouched = new byte[1024];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(scheduler.read(512, before, 0, 1024));
+        futures.add(scheduler.write(0, filled(2048, 2), 0, 2048));
+        futures.add(scheduler.read(1024, after, 0, 1024));
+        futures.add(scheduler.read(3072, untouched, 0, 1024));
+        disk.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(filled(1024, 1), before); // submitted before the write
+        assertArrayEquals(filled(1024, 2), after);
+        assertArrayEquals(filled(1024, 1), untouched);
+        scheduler.close();
+    }
+
+    @Test
+    @Timeout(10)
+    void testOverlappingWritesAreSplitAtTheMergeLimit() throws Exception {
+        MemoryDisk disk = new MemoryDisk();
+        IoScheduler scheduler = new IoScheduler(disk);
+        CompletableFuture<Void> first = stall(scheduler, disk);
+
+        int mb = 1024 * 1024;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(scheduler.write(0, filled(3 * mb / 2, 1), 0, 3 * mb / 2));
+        futures.add(scheduler.write(mb / 2, filled(2 * mb, 2), 0, 2 * mb));
+        futures.add(scheduler.write(mb, filled(10, 3), 0, 10));
+        disk.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertTrue(disk.largestCall <= mb);
+        assertEquals(1 + 3, disk.writes.get()); // split at 1 MB and 2 MB
+        assertEquals(1, disk.bytes[mb / 2 - 1]);
+        assertEquals(2, disk.bytes[mb / 2]); // the later writes won across the splits
+        assertEquals(3, disk.bytes[mb]);
+        assertEquals(3, disk.bytes[mb + 9]);
+        assertEquals(2, disk.bytes[mb + 10]);
+        assertEquals(2, disk.bytes[3 * mb / 2]);
+        assertEquals(2, disk.bytes[5 * mb / 2 - 1]);
+        assertEquals(0, disk.bytes[5 * mb / 2]);
+        scheduler.close();
+    }
+
+    @Test
+    @Timeout(10)
+    void testFailedRunFailsOnlyItsRequests() throws Exception {
+        MemoryDisk disk = new MemoryDisk();
+        IoScheduler scheduler = new IoScheduler(disk);
+        CompletableFuture<Void> first = stall(scheduler, disk);
+        disk.failAt = 4096 + 10;
+
+        CompletableFuture<Void> a = scheduler.write(4096, filled(8, 1), 0, 8);
+        CompletableFuture<Void> b = scheduler.write(4096 + 8, filled(8, 2), 0, 8); // merged with a, holds the bad byte
+        CompletableFuture<Void> c = scheduler.write(16 * 1024, filled(8, 3), 0, 8);
+        disk.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+
+        CompletionException failure = assertThrows(CompletionException.class, a::join);
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertThrows(CompletionException.class, b::join);
+        c.get(5, TimeUnit.SECONDS);
+        assertEquals(3, disk.bytes[16 * 1024]);
+        scheduler.close();
+    }
+
+    @Test
+    @Timeout(30)
+    void testAsyncOperationsThroughTheScheduler() throws Exception {
+        String image = dir.resolve("async.dat").toString();
+        FileSystemConfig config = new FileSystemConfig().setIoScheduler(true).setAsyncThreads(8)
+                .setBlockCacheBytes(0).setFileCacheBytes(0); // every read reaches the scheduler
+        FileSystemManager fs = new FileSystemManager(image, 4 * 1024 * 1024, config);
+        int files = 32;
+        byte[][] contents = new byte[files][];
+        Random random = new Random(7);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            contents[i] = new byte[1 + random.nextInt(20_000)];
+            random.nextBytes(contents[i]);
+            String name = "a" + i;
+            byte[] data = contents[i];
+            writes.add(fs.createAsync(name).thenCompose(done -> fs.writeAsync(name, data)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get(20, TimeUnit.SECONDS);
+
+        List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            reads.add(fs.readAsync("a" + i));
+        }
+        for (int i = 0; i < files; i++) {
+            assertArrayEquals(contents[i], reads.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertArrayEquals(Arrays.copyOfRange(contents[3], 0, 1), fs.readAsync("a3", 0, 1).get(10, TimeUnit.SECONDS));
+        assertEquals(files, fs.listAsync().get(10, TimeUnit.SECONDS).length);
+
+        CompletionException missing = assertThrows(CompletionException.class, () -> fs.readAsync("nothere").join());
+        assertEquals("File not found.", missing.getCause().getMessage()); // what readFile would have thrown
+
+        IoScheduler scheduler = fs.getIoScheduler();
+        assertNotNull(scheduler);
+        assertTrue(scheduler.getRequestCount() > 0);
+        assertTrue(scheduler.getDiskCallCount() <= scheduler.getRequestCount());
+        fs.close();
+        assertThrows(CompletionException.class, () -> fs.readAsync("a0").join());
+
+        // Everything reached the image, and reads back without the scheduler
+        FileSystemManager reopened = new FileSystemManager(image, 4 * 1024 * 1024, new FileSystemConfig());
+        for (int i = 0; i < files; i++) {
+            assertArrayEquals(contents[i], reopened.readFile("a" + i));
+        }
+        reopened.close();
+    }
+}
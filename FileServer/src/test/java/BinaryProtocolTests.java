@@ -0,0 +1,96 @@
+import helpers.BinaryClient;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import ca.concordia.server.BinaryProtocol;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryProtocolTests {
+
+    private static final int THREAD_POOL_PORT = 12348;
+    private static final int NIO_PORT = 12349;
+
+    @TempDir
+    static Path dir;
+
+    static ServerRunner threadPoolServer;
+    static ServerRunner nioServer;
+
+    @BeforeAll
+    static void startServers() throws Exception {
+        threadPoolServer = new ServerRunner(THREAD_POOL_PORT, "--image=" + dir.resolve("pool.dat"), "--size=" + 256 * 128);
+        threadPoolServer.start();
+        nioServer = new ServerRunner(NIO_PORT, "--mode=nio", "--image=" + dir.resolve("nio.dat"),
+                "--size=" + 256 * 128);
+        nioServer.start();
+    }
+
+    @AfterAll
+    static void stopServers() {
+        threadPoolServer.stop();
+        nioServer.stop();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {THREAD_POOL_PORT, NIO_PORT})
+    void testBinaryContentsRoundTrip(int port) throws Exception {
+        byte[] contents = new byte[3000];
+        new Random(port).nextBytes(contents);
+        contents[0] = '\n';
+        contents[1] = 0;
+        try (BinaryClient client = new BinaryClient(port)) {
+            assertTrue(client.send(BinaryProtocol.CREATE, "raw.bin").ok());
+            assertTrue(client.send(BinaryProtocol.WRITE, "raw.bin", contents).ok());
+            BinaryClient.Reply read = client.send(BinaryProtocol.READ, "raw.bin");
+            assertTrue(read.ok());
+            assertArrayEquals(contents, read.payload);
+            assertTrue(client.send(BinaryProtocol.LIST, "").text().contains("raw.bin"));
+            // Smaller contents through the same, now larger, server-side buffer
+            assertTrue(client.send(BinaryProtocol.WRITE, "raw.bin", new byte[]{1, 2, 3}).ok());
+            assertArrayEquals(new byte[]{1, 2, 3}, client.send(BinaryProtocol.READ, "raw.bin").payload);
+            assertTrue(client.send(BinaryProtocol.DELETE, "raw.bin").ok());
+
+            BinaryClient.Reply missing = client.send(BinaryProtocol.READ, "raw.bin");
+            assertEquals(BinaryProtocol.ERROR, missing.status);
+            assertEquals("File not found.", missing.text());
+            assertEquals(BinaryProtocol.ERROR, client.send((byte) 99, "x").status);
+
+            assertTrue(client.send(BinaryProtocol.QUIT, "").ok());
+            assertEquals(-1, client.read());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {THREAD_POOL_PORT, NIO_PORT})
+    void testTextClientsAreUnaffected(int port) throws Exception {
+        assertTrue(ClientRunner.send(port, "CREATE text.txt").startsWith("SUCCESS"));
+        assertTrue(ClientRunner.send(port, "WRITE text.txt still text").startsWith("SUCCESS"));
+        assertEquals("SUCCESS: still text", ClientRunner.send(port, "READ text.txt"));
+        try (BinaryClient client = new BinaryClient(port)) {
+            assertEquals("still text", client.send(BinaryProtocol.READ, "text.txt").text());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {THREAD_POOL_PORT, NIO_PORT})
+    void testOversizedFrameIsRejected(int port) throws Exception {
+        try (BinaryClient client = new BinaryClient(port)) {
+            ByteBuffer header = ByteBuffer.allocate(BinaryProtocol.REQUEST_HEADER_BYTES);
+            header.put(BinaryProtocol.WRITE).putShort((short) 1).putInt(BinaryProtocol.MAX_PAYLOAD + 1);
+            client.sendRaw(header.array());
+            BinaryClient.Reply reply = client.receive();
+            assertEquals(BinaryProtocol.ERROR, reply.status);
+            assertEquals("Frame too large.", reply.text());
+            assertEquals(-1, client.read());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import ca.concordia.filesystem.datastructures.BlockBitmap;
+
+public class BlockBitmapTests {
+
+    private static int start(long run) {
+        return (int) (run >>> 32);
+    }
+
+    private static int length(long run) {
+        return (int) run;
+    }
+
+    @Test
+    void testAllocatesContiguousRunsAcrossWords() {
+        BlockBitmap bitmap = new BlockBitmap(200);
+        long run = bitmap.allocateRun(150);
+        assertEquals(0, start(run));
+        assertEquals(150, length(run));
+        assertEquals(50, bitmap.getFreeCount());
+        assertFalse(bitmap.isFree(149));
+        assertTrue(bitmap.isFree(150));
+    }
+
+    @Test
+    void testSkipsRunsTooShortAndNextFitContinues() {
+        BlockBitmap bitmap = new BlockBitmap(128);
+        bitmap.markUsed(10);
+        long first = bitmap.allocateRun(20);
+        assertEquals(11, start(first));
+        assertEquals(20, length(first));
+
+        long second = bitmap.allocateRun(20);
+        assertEquals(31, start(second));
+        assertEquals(20, length(second));
+
+        // Next-fit carries on after the last run although blocks 0-9 would also do
+        long small = bitmap.allocateRun(5);
+        assertEquals(51, start(small));
+    }
+
+    // Free runs of 7 blocks across the first half, then one free run of 256
+    private static BlockBitmap fragmented() {
+        BlockBitmap bitmap = new BlockBitmap(512);
+        for (int block = 0; block < 256; block += 8) {
+            bitmap.markUsed(block);
+        }
+        bitmap.markUsed(255);
+        return bitmap;
+    }
+
+    @Test
+    void testFragmentedSpaceFallsBackToLongestRun() {
+        BlockBitmap bitmap = fragmented();
+        long run = bitmap.allocateRun(400);
+        assertEquals(256, start(run));
+        assertEquals(256, length(run));
+
+        long rest = bitmap.allocateRun(20);
+        assertEquals(1, start(rest));
+        assertEquals(7, length(rest));
+    }
+
+    @Test
+    void testLargeFileFitsInFewRunsDespiteFragmentation() {
+        // First-fit would need 40 runs of 7; the inode only has room for 8
+        BlockBitmap bitmap = fragmented();
+        int remaining = 280;
+        int runs = 0;
+        while (remaining > 0 && runs < 8) {
+            remaining -= length(bitmap.allocateRun(remaining));
+            runs++;
+        }
+        assertEquals(0, remaining);
+        assertEquals(5, runs);
+    }
+
+    @Test
+    void testWrapsAroundToFreedSpace() {
+        BlockBitmap bitmap = new BlockBitmap(64);
+        bitmap.allocateRun(64);
+        assertEquals(-1, bitmap.allocateRun(1));
+
+        bitmap.markFree(3);
+        bitmap.markFree(4);
+        long run = bitmap.allocateRun(8);
+        assertEquals(3, start(run));
+        assertEquals(2, length(run));
+        assertEquals(0, bitmap.getFreeCount());
+    }
+
+    @Test
+    void testDirtyWordsRoundTrip() {
+        BlockBitmap bitmap = new BlockBitmap(1000);
+        bitmap.markUsed(5);
+        bitmap.markUsed(700);
+        assertEquals(0, bitmap.nextDirtyWord(0));
+        assertEquals(700 / 64, bitmap.nextDirtyWord(1));
+        assertEquals(-1, bitmap.nextDirtyWord(700 / 64 + 1));
+
+        ByteBuffer encoded = ByteBuffer.allocate(bitmap.getWordCount() * 8);
+        bitmap.encodeWords(0, bitmap.getWordCount(), encoded);
+        encoded.flip();
+        BlockBitmap copy = new BlockBitmap(1000);
+        copy.decodeWords(0, copy.getWordCount(), encoded);
+        assertEquals(998, copy.getFreeCount());
+        assertFalse(copy.isFree(700));
+    }
+}
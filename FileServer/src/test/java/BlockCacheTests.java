@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.storage.BlockCache;
+
+public class BlockCacheTests {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] block(int value) {
+        byte[] bytes = new byte[64];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    void testClockGivesReferencedBlocksASecondChance() {
+        BlockCache cache = new BlockCache(3, 64);
+        byte[] out = new byte[64];
+        cache.put(10, block(1), 0, 64);
+        cache.put(20, block(2), 0, 64);
+        cache.put(30, block(3), 0, 64);
+        // The sweep clears every reference bit, then evicts the oldest block
+        cache.put(40, block(4), 0, 64);
+        assertFalse(cache.read(10, out, 0, 64));
+        assertEquals(1, cache.getEvictions());
+
+        assertTrue(cache.read(20, out, 0, 64)); // referenced again, survives the next sweep
+        assertArrayEquals(block(2), out);
+        cache.put(50, block(5), 0, 64);
+        assertTrue(cache.read(20, out, 0, 64));
+        assertFalse(cache.read(30, out, 0, 64));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testInvalidateAndPartialBlocks() {
+        BlockCache cache = new BlockCache(4, 64);
+        byte[] out = new byte[64];
+        cache.put(7, block(9), 0, 20);
+        assertTrue(cache.read(7, out, 0, 20));
+        assertFalse(cache.read(7, out, 0, 64)); // only 20 bytes are known
+        cache.invalidate(7);
+        assertFalse(cache.read(7, out, 0, 20));
+
+        // Churn through many keys so removals have to repair probe sequences
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i * 64, block(i), 0, 64);
+            if (i % 3 == 0) {
+                cache.invalidate(i * 64);
+            }
+        }
+        assertTrue(cache.read(9_998 * 64, out, 0, 64));
+        assertArrayEquals(block(9_998), out);
+    }
+
+    @Test
+    void testRepeatedReadsAreServedFromTheCache() throws Exception {
+        String image = new File(dir.toFile(), "cached.dat").getPath();
+        FileSystemManager fs = new FileSystemManager(image, 64 * 128, new FileSystemConfig().setBlockCacheBytes(16 * 128).setFileCacheBytes(0));
+        byte[] hot = "hot file ".repeat(40).getBytes(); // 3 blocks
+        fs.createFile("hot");
+        fs.writeFile("hot", hot);
+        BlockCache cache = fs.getBlockCache();
+        long misses = cache.getMisses();
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(hot, fs.readFile("hot"));
+        }
+        assertEquals(misses, cache.getMisses());
+        assertEquals(300, cache.getHits());
+
+        // Rewrites and deletes never leave stale blocks behind
+        fs.writeFile("hot", "changed".getBytes());
+        assertArrayEquals("changed".getBytes(), fs.readFile("hot"));
+        fs.deleteFile("hot");
+        fs.createFile("other");
+        fs.writeFile("other", new byte[300]);
+        assertArrayEquals(new byte[300], fs.readFile("other"));
+        fs.close();
+    }
+}
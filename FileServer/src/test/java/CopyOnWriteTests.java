@@ -0,0 +1,178 @@
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CopyOnWriteTests {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    // Takes whatever it is sent, but not before release is counted down
+    private static class StalledChannel implements WritableByteChannel {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public int write(ByteBuffer src) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int n = src.remaining();
+            byte[] bytes = new byte[n];
+            src.get(bytes);
+            received.write(bytes, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testSlowReaderDoesNotHoldUpWriter() throws Exception {
+        // 256 blocks: the old and the new 100-block version fit side by side, but a further
+        // 150-block file only fits once the old version is gone
+        String image = dir.resolve("fs.dat").toString();
+        FileSystemManager fs = new FileSystemManager(image, 256 * 1024, new FileSystemConfig().setBlockSize(1024));
+        byte[] oldContents = randomBytes(100 * 1024, 1);
+        byte[] newContents = randomBytes(100 * 1024, 2);
+        fs.createFile("f");
+        fs.writeFile("f", oldContents);
+
+        StalledChannel channel = new StalledChannel();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> transfer = executor.submit(() -> fs.transferFile("f", 0, size -> channel));
+            assertTrue(channel.started.await(10, TimeUnit.SECONDS));
+
+            // The transfer is stalled mid-file; the rewrite and later reads go ahead regardless
+            executor.submit(() -> {
+                fs.writeFile("f", newContents);
+                return null;
+            }).get(10, TimeUnit.SECONDS);
+            assertArrayEquals(newContents, fs.readFile("f"));
+            fs.createFile("g");
+            assertThrows(Exception.class, () -> fs.writeFile("g", new byte[150 * 1024]));
+
+            channel.release.countDown();
+            assertTrue(transfer.get(10, TimeUnit.SECONDS));
+            assertArrayEquals(oldContents, channel.received.toByteArray());
+        } finally {
+            channel.release.countDown();
+            executor.shutdownNow();
+        }
+
+        // The old blocks were freed when the transfer finished
+        fs.writeFile("g", new byte[150 * 1024]);
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image, 256 * 1024);
+        assertArrayEquals(newContents, reopened.readFile("f"));
+        assertEquals(150 * 1024, reopened.readFile("g").length);
+        reopened.close();
+    }
+
+    @Test
+    @Timeout(60)
+    void testReadersSeeWholeVersions() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("fs.dat").toString(), 256 * 1024,
+                new FileSystemConfig().setBlockSize(512).setFileCacheBytes(0));
+        byte[] a = new byte[3000];
+        byte[] b = new byte[7000];
+        Arrays.fill(a, (byte) 'a');
+        Arrays.fill(b, (byte) 'b');
+        fs.createFile("f");
+        fs.writeFile("f", a);
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> readers = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (writing.get()) {
+                        byte[] seen = fs.readFile("f");
+                        byte[] expected = seen.length == a.length ? a : b;
+                        assertArrayEquals(expected, seen);
+                        byte[] range = fs.readFile("f", 2500, 1000);
+                        assertTrue(range.length == 500 || range.length == 1000);
+                        assertArrayEquals(range.length == 500 ? Arrays.copyOf(a, 500) : Arrays.copyOf(b, 1000), range);
+                    }
+                } catch (Throwable t) {
+                    synchronized (failures) {
+                        failures.add(t);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        try {
+            for (int i = 0; i < 300; i++) {
+                fs.writeFile("f", i % 2 == 0 ? b : a);
+            }
+        } finally {
+            writing.set(false);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        assertTrue(failures.isEmpty(), () -> "Reader saw a torn file: " + failures.get(0));
+        fs.close();
+    }
+
+    @Test
+    void testRewriteThatDoesNotFitTwiceStillSucceeds() throws Exception {
+        String image = dir.resolve("fs.dat").toString();
+        FileSystemManager fs = new FileSystemManager(image, 16 * 1024, new FileSystemConfig().setBlockSize(1024));
+        byte[] contents = randomBytes(12 * 1024, 3);
+        fs.createFile("big");
+        fs.writeFile("big", contents);
+
+        // Only 4 blocks are free, so the old blocks are freed before the new ones are written
+        byte[] rewritten = randomBytes(12 * 1024, 4);
+        fs.writeFile("big", rewritten);
+        assertArrayEquals(rewritten, fs.readFile("big"));
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image, 16 * 1024);
+        assertArrayEquals(rewritten, reopened.readFile("big"));
+        reopened.close();
+    }
+}
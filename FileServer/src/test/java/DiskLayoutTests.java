@@ -0,0 +1,193 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+
+public class DiskLayoutTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testGeometryComesFromTotalSizeAndSurvivesReopen() throws Exception {
+        String image = new File(dir.toFile(), "large.dat").getPath();
+        FileSystemConfig config = new FileSystemConfig().setBlockSize(256).setMaxFiles(100);
+
+        FileSystemManager fs = new FileSystemManager(image, 64 * 1024, config);
+        for (int i = 0; i < 50; i++) {
+            fs.createFile("f" + i);
+            fs.writeFile("f" + i, ("content of file " + i).repeat(20).getBytes());
+        }
+        fs.close();
+
+        // Arguments are ignored for an existing image, its superblock wins
+        FileSystemManager reopened = new FileSystemManager(image, 10 * 128);
+        assertEquals(50, reopened.listFiles().length);
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(("content of file " + i).repeat(20).getBytes(), reopened.readFile("f" + i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    void testInodesAreReusedAfterDelete() throws Exception {
+        String image = new File(dir.toFile(), "many.dat").getPath();
+        FileSystemManager fs = new FileSystemManager(image, 128 * 1024, new FileSystemConfig().setMaxFiles(1000));
+        for (int i = 0; i < 1000; i++) {
+            fs.createFile("n" + i);
+        }
+        Exception full = assertThrows(Exception.class, () -> fs.createFile("extra"));
+        assertTrue(full.getMessage().contains("Maximum file limit"));
+
+        for (int i = 0; i < 1000; i += 100) {
+            fs.deleteFile("n" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            fs.createFile("r" + i);
+            fs.writeFile("r" + i, ("reused " + i).getBytes());
+        }
+        assertThrows(Exception.class, () -> fs.readFile("n100"));
+        assertArrayEquals("reused 7".getBytes(), fs.readFile("r7"));
+        assertEquals(1000, fs.listFiles().length);
+        fs.close();
+    }
+
+    @Test
+    void testLowestFreeInodeIsReusedFirst() throws Exception {
+        String image = new File(dir.toFile(), "slots.dat").getPath();
+        FileSystemManager fs = new FileSystemManager(image, 64 * 1024, new FileSystemConfig().setMaxFiles(10));
+        for (int i = 0; i < 8; i++) {
+            fs.createFile("s" + i);
+        }
+        // Deleted out of order; listFiles() reports names in inode order
+        fs.deleteFile("s7");
+        fs.deleteFile("s2");
+        fs.deleteFile("s5");
+        fs.createFile("x");
+        fs.createFile("y");
+        fs.createFile("z");
+        assertArrayEquals(new String[]{"s0", "s1", "x", "s3", "s4", "y", "s6", "z"}, fs.listFiles());
+        fs.createFile("w"); // then the slots never used
+        assertEquals("w", fs.listFiles()[8]);
+        fs.close();
+    }
+
+    @Test
+    void testFilesLargerThan32KB() throws Exception {
+        String image = new File(dir.toFile(), "wide.dat").getPath();
+        byte[] content = new byte[200 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+
+        FileSystemManager fs = new FileSystemManager(image, 1024 * 1024, new FileSystemConfig().setBlockSize(4096));
+        fs.createFile("big.bin");
+        fs.writeFile("big.bin", content);
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image, 1024 * 1024);
+        assertArrayEquals(content, reopened.readFile("big.bin"));
+        reopened.close();
+    }
+
+    @Test
+    void testFragmentedFreeSpaceFallsBackToChain() throws Exception {
+        String image = new File(dir.toFile(), "fragmented.dat").getPath();
+        FileSystemManager fs = new FileSystemManager(image, 64 * 128, new FileSystemConfig().setMaxFiles(40));
+        for (int i = 0; i < 32; i++) {
+            fs.createFile("s" + i);
+            fs.writeFile("s" + i, ("small " + i).getBytes());
+        }
+        // 32 single-block holes: more runs than an inode has extent slots
+        for (int i = 0; i < 32; i += 2) {
+            fs.deleteFile("s" + i);
+        }
+        byte[] chained = new byte[40 * 128];
+        byte[] contiguous = new byte[8 * 128];
+        for (int i = 0; i < chained.length; i++) {
+            chained[i] = (byte) (i * 7);
+        }
+        Arrays.fill(contiguous, (byte) 'c');
+        fs.createFile("chained");
+        fs.writeFile("chained", chained);
+        fs.deleteFile("s1");
+        fs.createFile("contiguous");
+        fs.writeFile("contiguous", contiguous);
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image, 64 * 128);
+        assertArrayEquals(chained, reopened.readFile("chained"));
+        assertArrayEquals(contiguous, reopened.readFile("contiguous"));
+        assertArrayEquals("small 31".getBytes(), reopened.readFile("s31"));
+        reopened.deleteFile("chained");
+        reopened.writeFile("contiguous", chained);
+        assertArrayEquals(chained, reopened.readFile("contiguous"));
+        reopened.close();
+    }
+
+    @Test
+    void testChangedMetadataIsFlushedWithoutJournal() throws Exception {
+        String image = new File(dir.toFile(), "direct.dat").getPath();
+        FileSystemConfig config = new FileSystemConfig().setJournal(false).setMaxFiles(200);
+        FileSystemManager fs = new FileSystemManager(image, 512 * 128, config);
+        for (int i = 0; i < 200; i++) {
+            fs.createFile("d" + i);
+        }
+        // Scattered inodes and chains: slots far apart are written separately, neighbours together
+        for (int i = 0; i < 200; i += 37) {
+            fs.writeFile("d" + i, ("payload " + i).repeat(30).getBytes());
+        }
+        fs.deleteFile("d74");
+        fs.deleteFile("d75");
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image, 512 * 128, config);
+        assertEquals(198, reopened.listFiles().length);
+        for (int i = 0; i < 200; i += 37) {
+            if (i != 74) {
+                assertArrayEquals(("payload " + i).repeat(30).getBytes(), reopened.readFile("d" + i));
+            }
+        }
+        assertThrows(Exception.class, () -> reopened.readFile("d75"));
+        reopened.close();
+    }
+
+    @Test
+    void testLegacyImageStillLoads() throws Exception {
+        // Pre-superblock layout: 5 x 15-byte FEntry, 10 x 4-byte FNode, data from offset 128
+        ByteBuffer legacy = ByteBuffer.allocate(128 + 10 * 128);
+        legacy.put("old.txt".getBytes()).put(new byte[4]).putShort((short) 5).putShort((short) 0);
+        for (int i = 1; i < 5; i++) {
+            legacy.put(new byte[11]).putShort((short) 0).putShort((short) -1);
+        }
+        legacy.putShort((short) 0).putShort((short) -1);
+        for (int i = 1; i < 10; i++) {
+            legacy.putShort((short) -1).putShort((short) -1);
+        }
+        legacy.position(128);
+        legacy.put("hello".getBytes());
+        Path image = dir.resolve("legacy.dat");
+        Files.write(image, legacy.array());
+
+        FileSystemManager fs = new FileSystemManager(image.toString(), 10 * 128);
+        assertArrayEquals("hello".getBytes(), fs.readFile("old.txt"));
+        fs.writeFile("old.txt", "rewritten".getBytes());
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image.toString(), 10 * 128);
+        assertArrayEquals("rewritten".getBytes(), reopened.readFile("old.txt"));
+        reopened.close();
+    }
+}
@@ -0,0 +1,24 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import ca.concordia.filesystem.datastructures.ExtentList;
+
+public class ExtentListTests {
+
+    @Test
+    void testOffsetsMapToExtents() {
+        ExtentList extents = new ExtentList(new int[] {40, 7, 100}, new int[] {3, 1, 5}, 3);
+        assertEquals(9, extents.getBlockCount());
+        assertEquals(0, extents.findExtent(0));
+        assertEquals(0, extents.findExtent(2));
+        assertEquals(1, extents.findExtent(3));
+        assertEquals(2, extents.findExtent(4));
+        assertEquals(2, extents.findExtent(8));
+        assertEquals(-1, extents.findExtent(9));
+        assertEquals(42, extents.physicalBlock(2));
+        assertEquals(7, extents.physicalBlock(3));
+        assertEquals(104, extents.physicalBlock(8));
+        assertEquals(-1, extents.physicalBlock(-1));
+    }
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.concordia.filesystem.FileCache;
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+
+public class FileCacheTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testBudgetEvictsLeastRecentlyUsed() {
+        FileCache cache = new FileCache(100, 60);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        cache.get("a"); // b is now the least recently used
+        cache.put("c", new byte[40]);
+        assertNull(cache.get("b"));
+        assertEquals(80, cache.getUsedBytes());
+        cache.put("big", new byte[61]); // over the per-file limit
+        assertNull(cache.get("big"));
+
+        byte[] copy = cache.get("a");
+        copy[0] = 1; // callers cannot change the cached contents
+        assertEquals(0, cache.get("a")[0]);
+    }
+
+    @Test
+    void testRangeIsCopiedOutOfTheCachedFile() {
+        FileCache cache = new FileCache(100, 60);
+        cache.put("a", "0123456789".getBytes());
+        byte[] range = new byte[3];
+        assertTrue(cache.read("a", 4, range));
+        assertArrayEquals("456".getBytes(), range);
+        assertTrue(cache.read("a", 10, new byte[0]));
+        assertFalse(cache.read("a", 8, new byte[3])); // past the end
+        assertFalse(cache.read("b", 0, new byte[1]));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testRangedReadsAreServedFromTheCache() throws Exception {
+        String image = new File(dir.toFile(), "ranged.dat").getPath();
+        FileSystemManager fs = new FileSystemManager(image, 64 * 128, new FileSystemConfig());
+        fs.createFile("log");
+        fs.writeFile("log", "first line\nsecond line\n".getBytes());
+        fs.readFile("log"); // fills the cache
+        assertArrayEquals("second".getBytes(), fs.readFile("log", 11, 6));
+        assertArrayEquals("line\n".getBytes(), fs.readFile("log", 18, 100));
+        assertEquals(0, fs.readFile("log", 40, 5).length);
+        assertEquals(3, fs.getFileCache().getHits());
+        fs.close();
+    }
+
+    @Test
+    void testRepeatedReadsSkipTheDiskAndWritesInvalidate() throws Exception {
+        String image = new File(dir.toFile(), "hot.dat").getPath();
+        FileSystemManager fs = new FileSystemManager(image, 64 * 128, new FileSystemConfig());
+        fs.createFile("config");
+        fs.writeFile("config", "key=value".getBytes());
+        assertArrayEquals("key=value".getBytes(), fs.readFile("config"));
+        long blockReads = fs.getBlockCache().getHits() + fs.getBlockCache().getMisses();
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals("key=value".getBytes(), fs.readFile("config"));
+        }
+        assertEquals(50, fs.getFileCache().getHits());
+        assertEquals(blockReads, fs.getBlockCache().getHits() + fs.getBlockCache().getMisses());
+
+        fs.writeFile("config", "key=other".getBytes());
+        assertArrayEquals("key=other".getBytes(), fs.readFile("config"));
+        fs.deleteFile("config");
+        assertThrows(Exception.class, () -> fs.readFile("config"));
+        fs.createFile("config");
+        assertEquals(0, fs.readFile("config").length);
+        fs.close();
+    }
+}
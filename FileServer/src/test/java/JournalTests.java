@@ -0,0 +1,361 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileWriteChannel;
+import ca.concordia.filesystem.storage.ChannelStorage;
+import ca.concordia.filesystem.storage.DiskStorage;
+import ca.concordia.filesystem.storage.Journal;
+import ca.concordia.filesystem.storage.StorageBackend;
+
+public class JournalTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testCommittedOperationsAreReplayedAfterACrash() throws Exception {
+        Path image = dir.resolve("live.dat");
+        Path crashed = dir.resolve("crashed.dat");
+        new FileSystemManager(image.toString(), 32 * 128).close();
+        Files.copy(image, crashed); // the image as it was before the operations below reached it
+
+        FileSystemManager fs = new FileSystemManager(image.toString(), 32 * 128);
+        fs.createFile("a.txt");
+        fs.writeFile("a.txt", "journaled ".repeat(50).getBytes());
+        fs.createFile("b.txt");
+        // Crash: the image never saw these operations, only the journal did
+        Files.copy(Path.of(image + ".journal"), Path.of(crashed + ".journal"));
+        fs.close();
+
+        FileSystemManager recovered = new FileSystemManager(crashed.toString(), 32 * 128);
+        assertEquals(2, recovered.listFiles().length);
+        assertArrayEquals("journaled ".repeat(50).getBytes(), recovered.readFile("a.txt"));
+        assertEquals(0, recovered.readFile("b.txt").length);
+        // The bitmap was replayed too: new allocations do not overwrite a.txt
+        recovered.createFile("c.txt");
+        recovered.writeFile("c.txt", "fresh".getBytes());
+        assertArrayEquals("journaled ".repeat(50).getBytes(), recovered.readFile("a.txt"));
+        recovered.close();
+    }
+
+    @Test
+    void testStreamedDataInFreedBlocksSurvivesReplay() throws Exception {
+        Path image = dir.resolve("reuse.dat");
+        Path crashed = dir.resolve("reuse-crashed.dat");
+        FileSystemManager fs = new FileSystemManager(image.toString(), 32 * 128);
+        byte[] old = new byte[24 * 128];
+        Arrays.fill(old, (byte) 'o');
+        fs.createFile("old");
+        fs.writeFile("old", old);
+        fs.deleteFile("old"); // its blocks are zeroed through the journal
+        // More blocks than were never used: the stream has to take some of the deleted file's
+        byte[] streamed = new byte[24 * 128];
+        Arrays.fill(streamed, (byte) 's');
+        fs.createFile("new");
+        try (FileWriteChannel write = fs.openWrite("new", streamed.length)) {
+            write.write(ByteBuffer.wrap(streamed));
+        }
+        assertArrayEquals(streamed, fs.readFile("new"));
+        // Crash: the image as it is now, and whatever the journal still holds
+        Files.copy(image, crashed);
+        Files.copy(Path.of(image + ".journal"), Path.of(crashed + ".journal"));
+        fs.close();
+
+        FileSystemManager recovered = new FileSystemManager(crashed.toString(), 32 * 128);
+        assertArrayEquals(streamed, recovered.readFile("new"));
+        recovered.close();
+    }
+
+    @Test
+    void testUncommittedAndTornRecordsAreNotReplayed() throws Exception {
+        Path image = dir.resolve("raw.dat");
+        Path journalFile = dir.resolve("raw.dat.journal");
+        Path copy = dir.resolve("copy.journal");
+        DiskStorage disk = new ChannelStorage(image.toString());
+        disk.setLength(1024);
+        Journal journal = new Journal(journalFile.toString(), disk, 0, 1024 * 1024);
+
+        Thread uncommitted = new Thread(() -> {
+            try {
+                journal.append(100, "lost".getBytes(), 0, 4);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        uncommitted.start();
+        uncommitted.join();
+        journal.append(0, "kept".getBytes(), 0, 4);
+        journal.commit();
+        journal.append(200, "torn".getBytes(), 0, 4);
+        journal.commit();
+        Files.copy(journalFile, copy);
+        journal.close();
+        disk.close();
+
+        Path fresh = dir.resolve("fresh.dat");
+        try (RandomAccessFile file = new RandomAccessFile(fresh.toFile(), "rw")) {
+            file.setLength(1024);
+        }
+        // Cut the last COMMIT record in half
+        try (RandomAccessFile file = new RandomAccessFile(copy.toFile(), "rw")) {
+            file.setLength(file.length() - 10);
+        }
+        Files.move(copy, Path.of(fresh + ".journal"));
+        DiskStorage replayed = new ChannelStorage(fresh.toString());
+        assertEquals(1, Journal.recover(fresh + ".journal", replayed));
+        byte[] bytes = new byte[4];
+        replayed.read(0, bytes, 0, 4);
+        assertArrayEquals("kept".getBytes(), bytes);
+        replayed.read(100, bytes, 0, 4);
+        assertArrayEquals(new byte[4], bytes);
+        replayed.read(200, bytes, 0, 4);
+        assertArrayEquals(new byte[4], bytes);
+        replayed.close();
+    }
+
+    @Test
+    void testReplayGrowsAShortImage() throws Exception {
+        Path image = dir.resolve("short.dat");
+        DiskStorage disk = new ChannelStorage(image.toString());
+        disk.setLength(8192);
+        Journal journal = new Journal(dir.resolve("short.dat.journal").toString(), disk, 0, 1024 * 1024);
+        journal.append(6000, "tail".getBytes(), 0, 4);
+        journal.commit();
+        Path copy = dir.resolve("copy.journal");
+        Files.copy(dir.resolve("short.dat.journal"), copy);
+        journal.close();
+        disk.close();
+
+        // The crash came before the image was sized: a mapped image cannot be written past its end
+        Path crashed = dir.resolve("crashed.dat");
+        try (RandomAccessFile file = new RandomAccessFile(crashed.toFile(), "rw")) {
+            file.setLength(1024);
+        }
+        Files.move(copy, Path.of(crashed + ".journal"));
+        DiskStorage mapped = StorageBackend.MAPPED.open(crashed.toString());
+        assertEquals(1, Journal.recover(crashed + ".journal", mapped));
+        assertEquals(6004, mapped.size());
+        byte[] bytes = new byte[4];
+        mapped.read(6000, bytes, 0, 4);
+        assertArrayEquals("tail".getBytes(), bytes);
+        mapped.close();
+    }
+
+    @Test
+    @Timeout(30)
+    void testOnlyCommittedWritesReachTheImage() throws Exception {
+        Path image = dir.resolve("live.dat");
+        DiskStorage disk = new ChannelStorage(image.toString());
+        disk.setLength(1024);
+        Journal journal = new Journal(dir.resolve("live.dat.journal").toString(), disk, 0, 1024 * 1024);
+        CountDownLatch opened = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> {
+            try {
+                journal.append(100, "aaaa".getBytes(), 0, 4);
+                opened.countDown();
+                release.await();
+                journal.commit();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        first.start();
+        opened.await();
+
+        // Commits of other transactions go ahead while the first one is open
+        journal.append(0, "kept".getBytes(), 0, 4);
+        journal.commit();
+        journal.append(300, "gone".getBytes(), 0, 4);
+        journal.abort();
+        journal.append(400, "next".getBytes(), 0, 4);
+        journal.commit();
+        byte[] bytes = new byte[4];
+        disk.read(0, bytes, 0, 4);
+        assertArrayEquals("kept".getBytes(), bytes);
+        disk.read(100, bytes, 0, 4);
+        assertArrayEquals(new byte[4], bytes);
+        disk.read(300, bytes, 0, 4);
+        assertArrayEquals(new byte[4], bytes);
+        disk.read(400, bytes, 0, 4);
+        assertArrayEquals("next".getBytes(), bytes);
+
+        // A later write to the same bytes waits for the open transaction and lands after it
+        Thread second = new Thread(() -> {
+            try {
+                journal.append(102, "bbbb".getBytes(), 0, 4);
+                journal.commit();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        second.start();
+        second.join(200);
+        assertTrue(second.isAlive());
+        release.countDown();
+        first.join();
+        second.join();
+        disk.read(100, bytes, 0, 4);
+        assertArrayEquals("aabb".getBytes(), bytes);
+        journal.close();
+        disk.close();
+    }
+
+    @Test
+    @Timeout(60)
+    void testCheckpointKeepsOnlyHeldRecords() throws Exception {
+        Path image = dir.resolve("long.dat");
+        Path journalFile = dir.resolve("long.dat.journal");
+        int mb = 1024 * 1024;
+        DiskStorage disk = new ChannelStorage(image.toString());
+        disk.setLength(48L * mb);
+        Journal journal = new Journal(journalFile.toString(), disk, 0, 4 * mb);
+        CountDownLatch opened = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread open = new Thread(() -> {
+            try {
+                journal.append(0, "aaaa".getBytes(), 0, 4);
+                opened.countDown();
+                release.await();
+                journal.commit();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        open.start();
+        opened.await();
+        Thread overlapping = new Thread(() -> {
+            try {
+                journal.append(2, "bbbb".getBytes(), 0, 4);
+                journal.commit(); // held behind the open transaction
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        overlapping.start();
+
+        // Well past the checkpoint size while both writes are held
+        byte[] chunk = new byte[mb];
+        for (int i = 1; i <= 40; i++) {
+            Arrays.fill(chunk, (byte) i);
+            journal.append((long) i * mb, chunk, 0, mb);
+            journal.commit();
+        }
+        assertTrue(Files.size(journalFile) < 32L * mb, "journal was not checkpointed: " + Files.size(journalFile));
+        assertTrue(overlapping.isAlive());
+
+        // A crash now replays the committed held write, but not the open one
+        Path crashed = dir.resolve("crashed.dat");
+        try (RandomAccessFile file = new RandomAccessFile(crashed.toFile(), "rw")) {
+            file.setLength(48L * mb);
+        }
+        Files.copy(journalFile, Path.of(crashed + ".journal"));
+        DiskStorage replayed = new ChannelStorage(crashed.toString());
+        Journal.recover(crashed + ".journal", replayed);
+        byte[] bytes = new byte[6];
+        replayed.read(0, bytes, 0, 6);
+        assertArrayEquals(new byte[] {0, 0, 'b', 'b', 'b', 'b'}, bytes);
+        replayed.close();
+
+        release.countDown();
+        open.join();
+        overlapping.join();
+        disk.read(0, bytes, 0, 6);
+        assertArrayEquals("aabbbb".getBytes(), bytes);
+        disk.read(40L * mb, bytes, 0, 1);
+        assertEquals(40, bytes[0]);
+        journal.close();
+        disk.close();
+    }
+
+    @Test
+    @Timeout(120)
+    void testConcurrentCreatesAreDurableWhenTheyReturn() throws Exception {
+        Path image = dir.resolve("busy.dat");
+        FileSystemConfig config = new FileSystemConfig().setCommitIntervalMillis(200).setMaxFiles(200);
+        new FileSystemManager(image.toString(), 64 * 128, config).close();
+        byte[] before = Files.readAllBytes(image);
+
+        FileSystemManager fs = new FileSystemManager(image.toString(), 64 * 128, config);
+        Path journalFile = Path.of(image + ".journal");
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        List<Future<List<byte[]>>> tasks = new ArrayList<>();
+        for (int t = 0; t < 32; t++) {
+            String prefix = "c" + t + "_";
+            tasks.add(pool.submit(() -> {
+                // The journal as a crash right after each create returned would leave it
+                List<byte[]> crashes = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    fs.createFile(prefix + i);
+                    crashes.add(Files.readAllBytes(journalFile));
+                }
+                return crashes;
+            }));
+        }
+        List<List<byte[]>> crashes = new ArrayList<>();
+        for (Future<List<byte[]>> task : tasks) {
+            crashes.add(task.get());
+        }
+        pool.shutdown();
+        fs.close();
+
+        Path crashed = dir.resolve("crashed.dat");
+        for (int t = 0; t < 32; t++) {
+            for (int i = 0; i < 5; i++) {
+                Files.write(crashed, before);
+                Files.write(Path.of(crashed + ".journal"), crashes.get(t).get(i));
+                FileSystemManager recovered = new FileSystemManager(crashed.toString(), 64 * 128, config);
+                assertTrue(Arrays.asList(recovered.listFiles()).contains("c" + t + "_" + i), "c" + t + "_" + i + " was lost");
+                recovered.close();
+            }
+        }
+    }
+
+    @Test
+    void testConcurrentWritesShareGroupCommits() throws Exception {
+        Path image = dir.resolve("group.dat");
+        FileSystemConfig config = new FileSystemConfig().setCommitIntervalMillis(5).setMaxFiles(16);
+        FileSystemManager fs = new FileSystemManager(image.toString(), 256 * 128, config);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            String name = "g" + t;
+            tasks.add(pool.submit(() -> {
+                fs.createFile(name);
+                for (int i = 0; i < 10; i++) {
+                    fs.writeFile(name, (name + " round " + i).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        pool.shutdown();
+        assertTrue(fs.getJournalSyncCount() < 16 * 11, "operations should share journal fsyncs");
+        for (int t = 0; t < 16; t++) {
+            assertArrayEquals(("g" + t + " round 9").getBytes(), fs.readFile("g" + t));
+        }
+        fs.close();
+        assertTrue(Files.notExists(Path.of(image + ".journal")));
+    }
+}
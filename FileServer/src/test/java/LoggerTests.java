@@ -0,0 +1,108 @@
+import ca.concordia.logging.LogLevel;
+import ca.concordia.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoggerTests {
+
+    private final Logger log = Logger.get(LoggerTests.class);
+    private ByteArrayOutputStream out;
+    private ByteArrayOutputStream err;
+
+    @BeforeEach
+    void captureOutput() {
+        Logger.flush();
+        out = new ByteArrayOutputStream();
+        err = new ByteArrayOutputStream();
+        Logger.setOutput(new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    @AfterEach
+    void restoreDefaults() {
+        Logger.flush();
+        Logger.setOutput(System.out, System.err);
+        Logger.setLevel(LogLevel.INFO);
+        Logger.setDebugSampling(1);
+    }
+
+    private static List<String> lines(ByteArrayOutputStream stream) {
+        String text = stream.toString();
+        return text.isEmpty() ? List.of() : List.of(text.split(System.lineSeparator()));
+    }
+
+    @Test
+    void testLevelsAndFields() {
+        Logger.setLevel(LogLevel.INFO);
+        assertFalse(log.isEnabled(LogLevel.DEBUG));
+        log.debug("Not written");
+        log.info("Server started", "port", 12345, "mode", "nio");
+        log.info("Received", "line", "WRITE f \"hi\"");
+        log.error("Failed");
+        Logger.flush();
+
+        List<String> normal = lines(out);
+        assertEquals(2, normal.size());
+        assertTrue(normal.get(0).contains(" INFO LoggerTests ["), normal.get(0));
+        assertTrue(normal.get(0).endsWith("Server started port=12345 mode=nio"), normal.get(0));
+        assertTrue(normal.get(1).endsWith("Received line=\"WRITE f \\\"hi\\\"\""), normal.get(1));
+        assertEquals(1, lines(err).size());
+        assertTrue(lines(err).get(0).endsWith(" ERROR LoggerTests [" + Thread.currentThread().getName() + "] Failed"));
+
+        Logger.setLevel(LogLevel.OFF);
+        log.error("Not written either");
+        Logger.flush();
+        assertEquals(1, lines(err).size());
+    }
+
+    @Test
+    void testDebugSampling() {
+        Logger.setLevel(LogLevel.DEBUG);
+        Logger.setDebugSampling(10);
+        for (int i = 0; i < 5000; i++) {
+            log.debug("Request", "i", i);
+        }
+        log.info("Never sampled");
+        Logger.flush();
+        List<String> written = lines(out);
+        assertTrue(written.get(written.size() - 1).endsWith("Never sampled"));
+        int debug = written.size() - 1;
+        assertTrue(debug > 250 && debug < 1000, "Kept " + debug + " of 5000");
+    }
+
+    @Test
+    void testConcurrentLoggersLoseNothingUncounted() throws Exception {
+        long droppedBefore = Logger.getDroppedCount();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    log.info("Event", "id", thread * 2000 + i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Logger.flush();
+
+        Set<String> ids = new HashSet<>();
+        for (String line : lines(out)) {
+            assertTrue(ids.add(line.substring(line.indexOf("id="))), "Duplicate " + line);
+        }
+        assertEquals(16_000, ids.size() + (Logger.getDroppedCount() - droppedBefore));
+    }
+}
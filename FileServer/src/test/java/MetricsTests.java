@@ -0,0 +1,125 @@
+import ca.concordia.metrics.LatencyHistogram;
+import ca.concordia.metrics.MetricsMBean;
+import ca.concordia.metrics.MetricsRegistry;
+import ca.concordia.server.BinaryProtocol;
+import helpers.BinaryClient;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTests {
+
+    private static final int PORT = 12356;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testHistogramPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(10_000), histogram.getMaxNanos());
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            double expected = TimeUnit.MICROSECONDS.toNanos((long) (percentile * 100));
+            double reported = histogram.getPercentileNanos(percentile);
+            assertTrue(reported >= expected && reported <= expected * 1.07,
+                    "p" + percentile + " reported " + reported + " for " + expected);
+        }
+        assertEquals(histogram.getMaxNanos(), histogram.getPercentileNanos(100));
+
+        LatencyHistogram small = new LatencyHistogram();
+        small.record(3);
+        small.record(-5); // clock went backwards: counted as 0
+        assertEquals(3, small.getPercentileNanos(100));
+        assertEquals(0, small.getPercentileNanos(50));
+    }
+
+    @Test
+    void testRegistrySnapshotAndMBean() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests").add(3);
+        registry.gauge("answer", () -> 42);
+        registry.histogram("op").record(TimeUnit.MILLISECONDS.toNanos(2));
+
+        SortedMap<String, Long> snapshot = registry.snapshot();
+        assertEquals(3L, snapshot.get("requests"));
+        assertEquals(42L, snapshot.get("answer"));
+        assertEquals(1L, snapshot.get("op.count"));
+        assertTrue(snapshot.get("op.p99_us") >= 2000 && snapshot.get("op.p99_us") <= 2000 * 1.07);
+        assertTrue(snapshot.containsKey("op.p99_9_us"));
+        assertTrue(snapshot.containsKey("uptime.ms"));
+
+        MetricsMBean.register(registry);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MetricsMBean.OBJECT_NAME);
+        assertEquals(3L, server.getAttribute(name, "requests"));
+        registry.counter("requests").increment();
+        assertEquals(4L, server.getAttribute(name, "requests"));
+        assertTrue(Arrays.stream(server.getMBeanInfo(name).getAttributes()).anyMatch(a -> a.getName().equals("op.max_us")));
+        server.unregisterMBean(name);
+    }
+
+    private static Map<String, Long> parse(String stats, String separator) {
+        Map<String, Long> values = new HashMap<>();
+        for (String pair : stats.split(separator)) {
+            int equals = pair.indexOf('=');
+            values.put(pair.substring(0, equals), Long.parseLong(pair.substring(equals + 1)));
+        }
+        return values;
+    }
+
+    @Test
+    void testStatsCommand() throws Exception {
+        ServerRunner server = new ServerRunner(PORT, "--image=" + dir.resolve("stats.dat"), "--size=" + 256 * 128);
+        server.start();
+        try {
+            assertTrue(ClientRunner.send(PORT, "CREATE s").startsWith("SUCCESS"));
+            assertTrue(ClientRunner.send(PORT, "WRITE s hello").startsWith("SUCCESS"));
+            assertEquals("SUCCESS: hello", ClientRunner.send(PORT, "READ s"));
+            assertTrue(ClientRunner.send(PORT, "READ missing").startsWith("ERROR"));
+            assertTrue(ClientRunner.send(PORT, "NONSENSE").startsWith("ERROR"));
+
+            String reply = ClientRunner.send(PORT, "STATS");
+            assertTrue(reply.startsWith("SUCCESS: "), reply);
+            Map<String, Long> stats = parse(reply.substring("SUCCESS: ".length()), " ");
+            assertEquals(1L, stats.get("command.CREATE.count"));
+            assertEquals(1L, stats.get("command.WRITE.count"));
+            assertEquals(2L, stats.get("command.READ.count"));
+            assertEquals(1L, stats.get("command.UNKNOWN.count"));
+            assertEquals(2L, stats.get("command.errors"));
+            assertEquals(5L, stats.get("fs.bytes.written"));
+            assertEquals(5L, stats.get("fs.bytes.read"));
+            assertTrue(stats.get("fs.sync.count") >= 2); // CREATE and WRITE each committed
+            assertTrue(stats.get("fs.lock.wait.count") >= 2);
+            assertEquals(0L, stats.get("pool.rejected"));
+            assertTrue(stats.containsKey("pool.active") && stats.containsKey("pool.queued"));
+            assertTrue(stats.containsKey("limiter.in_flight"));
+
+            try (BinaryClient client = new BinaryClient(PORT)) {
+                BinaryClient.Reply binary = client.send(BinaryProtocol.STATS, "");
+                assertTrue(binary.ok());
+                Map<String, Long> binaryStats = parse(binary.text(), "\n");
+                assertEquals(1L, binaryStats.get("command.STATS.count")); // the text STATS above
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioServerTests {
+
+    private static final int PORT = 12346;
+
+    @TempDir
+    static Path dir;
+
+    static ServerRunner server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new ServerRunner(PORT, "--mode=nio", "--image=" + dir.resolve("nio.dat"), "--size=" + 256 * 128);
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void testSameProtocolAsThreadPoolMode() throws Exception {
+        assertTrue(ClientRunner.send(PORT, "CREATE nio.txt").startsWith("SUCCESS"));
+        assertTrue(ClientRunner.send(PORT, "WRITE nio.txt over selectors").startsWith("SUCCESS"));
+        assertEquals("SUCCESS: over selectors", ClientRunner.send(PORT, "READ nio.txt"));
+        assertTrue(ClientRunner.send(PORT, "BADCOMMAND").startsWith("ERROR"));
+        assertTrue(ClientRunner.send(PORT, "").startsWith("ERROR"));
+    }
+
+    @Test
+    void testCommandsSentTogetherAreAnsweredInOrder() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            OutputStream out = socket.getOutputStream();
+            out.write("CREATE order\nWRITE order first\nREAD order\nWRITE order second\nREAD order\nQUIT\n".getBytes());
+            out.flush();
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            assertEquals("SUCCESS: first", in.readLine());
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            assertEquals("SUCCESS: second", in.readLine());
+            assertEquals("SUCCESS: Disconnecting.", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testIdleConnectionsDoNotBlockNewClients() throws Exception {
+        // More idle clients than the thread-pool mode has threads and queue slots together
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                idle.add(new Socket("localhost", PORT));
+            }
+            assertTrue(ClientRunner.send(PORT, "LIST").startsWith("SUCCESS"));
+            try (Socket last = idle.get(idle.size() - 1);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(last.getInputStream()))) {
+                last.getOutputStream().write("LIST\n".getBytes());
+                assertTrue(in.readLine().startsWith("SUCCESS"));
+            }
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+}
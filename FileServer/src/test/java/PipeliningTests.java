@@ -0,0 +1,137 @@
+import helpers.BinaryClient;
+import helpers.ServerRunner;
+import ca.concordia.server.BinaryProtocol;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipeliningTests {
+
+    private static final int THREAD_POOL_PORT = 12350;
+    private static final int NIO_PORT = 12351;
+    private static final int FILES = 50;
+
+    @TempDir
+    static Path dir;
+
+    static ServerRunner threadPoolServer;
+    static ServerRunner nioServer;
+
+    @BeforeAll
+    static void startServers() throws Exception {
+        threadPoolServer = new ServerRunner(THREAD_POOL_PORT, "--image=" + dir.resolve("pool.dat"),
+                "--size=" + 512 * 128, "--max-files=" + 2 * FILES);
+        threadPoolServer.start();
+        nioServer = new ServerRunner(NIO_PORT, "--mode=nio", "--image=" + dir.resolve("nio.dat"),
+                "--size=" + 512 * 128, "--max-files=" + 2 * FILES);
+        nioServer.start();
+    }
+
+    @AfterAll
+    static void stopServers() {
+        threadPoolServer.stop();
+        nioServer.stop();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {THREAD_POOL_PORT, NIO_PORT})
+    @Timeout(30)
+    void testPipelinedCommandsAreAnsweredInOrder(int port) throws Exception {
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < FILES; i++) {
+            commands.append("CREATE p").append(i).append('\n');
+            commands.append("WRITE p").append(i).append(" contents ").append(i).append('\n');
+            commands.append("READ p").append(i).append('\n');
+            commands.append("DELETE p").append(i).append('\n');
+        }
+        commands.append("QUIT\n");
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            OutputStream out = socket.getOutputStream();
+            out.write(commands.toString().getBytes(StandardCharsets.UTF_8)); // everything before any reply
+            out.flush();
+            for (int i = 0; i < FILES; i++) {
+                assertEquals("SUCCESS: File 'p" + i + "' created.", in.readLine());
+                assertTrue(in.readLine().startsWith("SUCCESS"));
+                assertEquals("SUCCESS: contents " + i, in.readLine());
+                assertEquals("SUCCESS: File 'p" + i + "' deleted.", in.readLine());
+            }
+            assertEquals("SUCCESS: Disconnecting.", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {THREAD_POOL_PORT, NIO_PORT})
+    @Timeout(30)
+    void testTaggedRepliesCarryTheirTag(int port) throws Exception {
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            OutputStream out = socket.getOutputStream();
+            out.write("CREATE t1\nCREATE t2\nWRITE t1 one\nWRITE t2 two\n".getBytes(StandardCharsets.UTF_8));
+            // Tagged commands may complete in any order; the untagged LIST waits for all of them
+            out.write("#a READ t1\n#b READ t2\n#c READ missing\nLIST\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            for (int i = 0; i < 4; i++) {
+                assertTrue(in.readLine().startsWith("SUCCESS"));
+            }
+            Set<String> tagged = new HashSet<>();
+            for (int i = 0; i < 3; i++) {
+                tagged.add(in.readLine());
+            }
+            assertEquals(Set.of("#a SUCCESS: one", "#b SUCCESS: two", "#c ERROR: File not found."), tagged);
+            assertTrue(in.readLine().startsWith("SUCCESS: Files found:"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {THREAD_POOL_PORT, NIO_PORT})
+    @Timeout(30)
+    void testPipelinedFramesAreAnsweredInOrder(int port) throws Exception {
+        ByteBuffer frames = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < FILES; i++) {
+            byte[] name = ("b" + i).getBytes(StandardCharsets.UTF_8);
+            byte[] contents = ("frame " + i).getBytes(StandardCharsets.UTF_8);
+            frames.put(BinaryProtocol.CREATE).putShort((short) name.length).putInt(0).put(name);
+            frames.put(BinaryProtocol.WRITE).putShort((short) name.length).putInt(contents.length).put(name).put(contents);
+            frames.put(BinaryProtocol.READ).putShort((short) name.length).putInt(0).put(name);
+            frames.put(BinaryProtocol.DELETE).putShort((short) name.length).putInt(0).put(name);
+        }
+        try (BinaryClient client = new BinaryClient(port)) {
+            byte[] all = new byte[frames.position()];
+            frames.flip().get(all);
+            client.sendRaw(all);
+            for (int i = 0; i < FILES; i++) {
+                assertTrue(client.receive().ok());
+                assertTrue(client.receive().ok());
+                assertEquals("frame " + i, client.receive().text());
+                assertTrue(client.receive().ok());
+            }
+        }
+    }
+
+    @Test
+    void testHashWithoutSpaceIsNotATag() throws Exception {
+        try (Socket socket = new Socket("localhost", NIO_PORT);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.getOutputStream().write("#LIST\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("ERROR: Unknown command.", in.readLine());
+        }
+    }
+}
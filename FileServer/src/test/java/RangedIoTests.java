@@ -0,0 +1,194 @@
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangedIoTests {
+
+    private static final int PORT = 12355;
+
+    @TempDir
+    Path dir;
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void testRangesOfExtentFiles() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("fs.dat").toString(), 256 * 1024,
+                new FileSystemConfig().setBlockSize(1024));
+        byte[] contents = randomBytes(20_000, 1);
+        fs.createFile("f");
+        fs.writeFile("f", contents);
+
+        assertArrayEquals(Arrays.copyOfRange(contents, 1000, 5000), fs.readFile("f", 1000, 4000));
+        assertArrayEquals(Arrays.copyOfRange(contents, 3, 4), fs.readFile("f", 3, 1));
+        assertArrayEquals(Arrays.copyOfRange(contents, 19_990, 20_000), fs.readFile("f", 19_990, 100));
+        assertEquals(0, fs.readFile("f", 50_000, 10).length);
+        assertThrows(Exception.class, () -> fs.readFile("f", -1, 10));
+
+        // In place, across a block boundary
+        byte[] patch = randomBytes(300, 2);
+        fs.writeFile("f", 900, patch);
+        System.arraycopy(patch, 0, contents, 900, patch.length);
+        assertArrayEquals(contents, fs.readFile("f"));
+
+        // Appends grow the file block by block
+        byte[] tail = randomBytes(5000, 3);
+        fs.appendFile("f", tail);
+        fs.appendFile("f", new byte[0]);
+        byte[] expected = Arrays.copyOf(contents, contents.length + tail.length);
+        System.arraycopy(tail, 0, expected, contents.length, tail.length);
+        assertArrayEquals(expected, fs.readFile("f"));
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(dir.resolve("fs.dat").toString(), 256 * 1024);
+        assertArrayEquals(expected, reopened.readFile("f"));
+        reopened.close();
+    }
+
+    @Test
+    void testWritePastTheEndReadsTheGapAsZeros() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("fs.dat").toString(), 64 * 1024,
+                new FileSystemConfig().setBlockSize(512));
+        // Leave old data in free blocks for the sparse file to pick up
+        fs.createFile("junk");
+        byte[] junk = new byte[8192];
+        Arrays.fill(junk, (byte) 'j');
+        fs.writeFile("junk", junk);
+        fs.writeFile("junk", new byte[0]);
+
+        fs.createFile("sparse");
+        fs.writeFile("sparse", "head".getBytes());
+        fs.writeFile("sparse", 3000, "tail".getBytes());
+        byte[] expected = new byte[3004];
+        System.arraycopy("head".getBytes(), 0, expected, 0, 4);
+        System.arraycopy("tail".getBytes(), 0, expected, 3000, 4);
+        assertArrayEquals(expected, fs.readFile("sparse"));
+        assertThrows(Exception.class, () -> fs.writeFile("sparse", -1, "x".getBytes()));
+        assertThrows(Exception.class, () -> fs.appendFile("missing", "x".getBytes()));
+        fs.close();
+    }
+
+    @Test
+    void testChainedAndFragmentedFiles() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("fs.dat").toString(), 64 * 128,
+                new FileSystemConfig().setMaxFiles(40));
+        for (int i = 0; i < 32; i++) {
+            fs.createFile("s" + i);
+            fs.writeFile("s" + i, ("small " + i).getBytes());
+        }
+        for (int i = 0; i < 32; i += 2) {
+            fs.deleteFile("s" + i);
+        }
+        // Too many single-block holes for the extent slots: this file is an FNode chain
+        byte[] chained = randomBytes(40 * 128, 4);
+        fs.createFile("chained");
+        fs.writeFile("chained", chained);
+        assertArrayEquals(Arrays.copyOfRange(chained, 200, 1000), fs.readFile("chained", 200, 800));
+        fs.appendFile("chained", "more".getBytes());
+        fs.writeFile("chained", 5, "xyz".getBytes());
+        byte[] expected = Arrays.copyOf(chained, chained.length + 4);
+        System.arraycopy("more".getBytes(), 0, expected, chained.length, 4);
+        System.arraycopy("xyz".getBytes(), 0, expected, 5, 3);
+        assertArrayEquals(expected, fs.readFile("chained"));
+
+        // Growing into whatever blocks are left, in place or by a rewrite
+        fs.createFile("grows");
+        fs.writeFile("grows", "x".getBytes());
+        byte[] big = randomBytes(4 * 128, 5);
+        fs.appendFile("grows", big);
+        byte[] grown = new byte[big.length + 1];
+        grown[0] = 'x';
+        System.arraycopy(big, 0, grown, 1, big.length);
+        assertArrayEquals(grown, fs.readFile("grows"));
+        assertArrayEquals("small 31".getBytes(), fs.readFile("s31"));
+        fs.close();
+    }
+
+    @Test
+    void testAppendsBeyondTheExtentSlotsKeepTheDataInPlace() throws Exception {
+        String image = dir.resolve("fs.dat").toString();
+        FileSystemManager fs = new FileSystemManager(image, 64 * 128, new FileSystemConfig().setMaxFiles(100));
+        fs.createFile("e");
+        byte[] expected = randomBytes(128, 6);
+        fs.writeFile("e", expected);
+        int small = 0;
+        try {
+            while (true) {
+                fs.createFile("s" + small);
+                fs.writeFile("s" + small++, new byte[128]);
+            }
+        } catch (Exception full) {
+            // every block is in use
+        }
+        for (int i = 0; i < small; i += 2) {
+            fs.deleteFile("s" + i);
+        }
+        // One single-block hole per append: past 8 extents the file moves onto an FNode chain,
+        // and the last appends fill the disk, leaving no room for a second copy of the file
+        int holes = (small + 1) / 2;
+        assertTrue(holes > 10);
+        for (int i = 0; i < holes; i++) {
+            byte[] block = randomBytes(128, 100 + i);
+            fs.appendFile("e", block);
+            expected = Arrays.copyOf(expected, expected.length + block.length);
+            System.arraycopy(block, 0, expected, expected.length - block.length, block.length);
+        }
+        assertArrayEquals(expected, fs.readFile("e"));
+        assertThrows(Exception.class, () -> fs.appendFile("e", new byte[1]));
+        assertArrayEquals(expected, fs.readFile("e")); // unchanged by the failed append
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image, 64 * 128);
+        assertArrayEquals(expected, reopened.readFile("e"));
+        reopened.deleteFile("s1");
+        reopened.appendFile("e", "x".getBytes()); // the freed block is usable again
+        reopened.close();
+    }
+
+    @Test
+    @Timeout(30)
+    void testFailedCommitLeavesTheFileAsItWas() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("fs.dat").toString(), 64 * 1024,
+                new FileSystemConfig().setIoScheduler(true));
+        fs.createFile("f");
+        fs.writeFile("f", "before".getBytes());
+        // Every write to the image fails from here on, so the append's commit does
+        fs.getIoScheduler().close();
+        assertThrows(Exception.class, () -> fs.appendFile("f", randomBytes(1000, 7)));
+        assertEquals(0, fs.readFile("f", 6, 100).length); // still six bytes long
+        assertThrows(IOException.class, fs::close); // the journal has failed
+    }
+
+    @Test
+    @Timeout(30)
+    void testRangeCommands() throws Exception {
+        ServerRunner server = new ServerRunner(PORT, "--image=" + dir.resolve("server.dat"));
+        server.start();
+        try {
+            assertTrue(ClientRunner.send(PORT, "CREATE r.txt").startsWith("SUCCESS"));
+            assertTrue(ClientRunner.send(PORT, "WRITE r.txt hello world").startsWith("SUCCESS"));
+            assertTrue(ClientRunner.send(PORT, "WRITE_AT r.txt 6 there").startsWith("SUCCESS"));
+            assertTrue(ClientRunner.send(PORT, "APPEND r.txt !").startsWith("SUCCESS"));
+            assertEquals("SUCCESS: hello there!", ClientRunner.send(PORT, "READ r.txt"));
+            assertEquals("SUCCESS: there", ClientRunner.send(PORT, "READ_RANGE r.txt 6 5"));
+            assertEquals("ERROR: Invalid offset.", ClientRunner.send(PORT, "WRITE_AT r.txt six x"));
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.storage.StorageBackend;
+
+public class StorageBackendTests {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @EnumSource(StorageBackend.class)
+    void testWriteReadAndReopen(StorageBackend backend) throws Exception {
+        String image = new File(dir.toFile(), "backend.dat").getPath();
+        byte[] content = "Persisted through the storage backend. ".repeat(6).getBytes();
+
+        FileSystemManager fs = new FileSystemManager(image, 10 * 128, backend);
+        fs.createFile("x.txt");
+        fs.writeFile("x.txt", content);
+        assertArrayEquals(content, fs.readFile("x.txt"));
+        fs.close();
+
+        FileSystemManager reopened = new FileSystemManager(image, 10 * 128, backend);
+        assertEquals("x.txt", reopened.listFiles()[0]);
+        assertArrayEquals(content, reopened.readFile("x.txt"));
+        reopened.close();
+    }
+}
@@ -0,0 +1,179 @@
+import helpers.BinaryClient;
+import helpers.ServerRunner;
+import ca.concordia.filesystem.FileReadChannel;
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileWriteChannel;
+import ca.concordia.server.BinaryProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingTests {
+
+    private static final int THREAD_POOL_PORT = 12353;
+    private static final int NIO_PORT = 12354;
+
+    @TempDir
+    Path dir;
+
+    private FileSystemManager newFileSystem(String name) throws IOException {
+        return new FileSystemManager(dir.resolve(name).toString(), 1024 * 1024, new FileSystemConfig().setBlockSize(4096));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void testStreamedWriteIsPublishedOnClose() throws Exception {
+        FileSystemManager fs = newFileSystem("fs.dat");
+        fs.createFile("big");
+        fs.writeFile("big", "old".getBytes());
+        byte[] contents = randomBytes(300 * 1024 + 5, 1);
+
+        OutputStream out = fs.openOutputStream("big", contents.length);
+        for (int offset = 0; offset < contents.length; offset += 7000) {
+            out.write(contents, offset, Math.min(7000, contents.length - offset));
+        }
+        assertArrayEquals("old".getBytes(), fs.readFile("big")); // not visible before close
+        out.close();
+        assertArrayEquals(contents, fs.readFile("big"));
+
+        try (InputStream in = fs.openInputStream("big")) {
+            assertArrayEquals(contents, in.readAllBytes());
+        }
+        // Resume from an unaligned offset into a direct buffer
+        try (FileReadChannel read = fs.openRead("big")) {
+            ByteBuffer rest = ByteBuffer.allocateDirect(contents.length);
+            read.position(123_457);
+            while (read.read(rest) >= 0) {
+            }
+            byte[] copy = new byte[rest.flip().remaining()];
+            rest.get(copy);
+            assertArrayEquals(Arrays.copyOfRange(contents, 123_457, contents.length), copy);
+        }
+        fs.close();
+    }
+
+    @Test
+    void testUnfinishedWritesGiveTheirSpaceBack() throws Exception {
+        FileSystemManager fs = newFileSystem("fs.dat");
+        fs.createFile("big");
+        fs.writeFile("big", "kept".getBytes());
+        long size = 700 * 1024; // two of these do not fit
+
+        FileWriteChannel aborted = fs.openWrite("big", size);
+        aborted.write(ByteBuffer.wrap(new byte[1000]));
+        aborted.abort();
+        FileWriteChannel shortWrite = fs.openWrite("big", size);
+        shortWrite.write(ByteBuffer.wrap(new byte[1000]));
+        assertThrows(IOException.class, shortWrite::close);
+        FileWriteChannel tooLong = fs.openWrite("big", 10);
+        assertThrows(IOException.class, () -> tooLong.write(ByteBuffer.wrap(new byte[11])));
+        tooLong.abort();
+        assertArrayEquals("kept".getBytes(), fs.readFile("big"));
+
+        // Left open when the file system goes away: reclaimed when the image is opened again
+        fs.openWrite("big", size).write(ByteBuffer.wrap(new byte[1000]));
+        fs.close();
+        FileSystemManager reopened = newFileSystem("fs.dat");
+        try (FileWriteChannel write = reopened.openWrite("big", size)) {
+            write.write(ByteBuffer.wrap(new byte[(int) size]));
+        }
+        assertEquals(size, reopened.readFile("big").length);
+        reopened.close();
+    }
+
+    @Test
+    void testReaderNoticesRewrite() throws Exception {
+        FileSystemManager fs = newFileSystem("fs.dat");
+        fs.createFile("f");
+        fs.writeFile("f", randomBytes(10_000, 2));
+        FileReadChannel read = fs.openRead("f");
+        read.read(ByteBuffer.allocate(100));
+        fs.writeFile("f", randomBytes(10_000, 3));
+        assertThrows(IOException.class, () -> read.read(ByteBuffer.allocate(100)));
+        fs.close();
+    }
+
+    @Test
+    @Timeout(30)
+    void testTextStreamingCommands() throws Exception {
+        ServerRunner server = new ServerRunner(THREAD_POOL_PORT, "--image=" + dir.resolve("pool.dat"));
+        server.start();
+        try (Socket socket = new Socket("localhost", THREAD_POOL_PORT);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("CREATE s.txt");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            out.println("WRITE_BEGIN s.txt 11");
+            assertEquals("SUCCESS: Ready for 11 bytes of 's.txt'.", in.readLine());
+            out.println("WRITE_CHUNK s.txt hello");
+            assertEquals("SUCCESS: 5 bytes of 's.txt' received.", in.readLine());
+            out.println("WRITE_CHUNK s.txt  world");
+            assertEquals("SUCCESS: 11 bytes of 's.txt' received.", in.readLine());
+            out.println("WRITE_END s.txt");
+            assertEquals("SUCCESS: File 's.txt' written with 11 bytes.", in.readLine());
+            out.println("READ_RANGE s.txt 6 100");
+            assertEquals("SUCCESS: world", in.readLine());
+            out.println("WRITE_END s.txt");
+            assertEquals("ERROR: No write in progress for 's.txt'.", in.readLine());
+            out.println("WRITE_BEGIN s.txt many");
+            assertEquals("ERROR: Invalid size.", in.readLine());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testBinaryStreamingAndDroppedConnections() throws Exception {
+        ServerRunner server = new ServerRunner(NIO_PORT, "--mode=nio", "--image=" + dir.resolve("nio.dat"),
+                "--block-size=4096", "--size=" + 2 * 1024 * 1024);
+        server.start();
+        byte[] contents = randomBytes(1024 * 1024, 4);
+        try {
+            try (BinaryClient client = new BinaryClient(NIO_PORT)) {
+                assertTrue(client.send(BinaryProtocol.CREATE, "big").ok());
+                assertTrue(client.send(BinaryProtocol.WRITE_BEGIN, "big", ByteBuffer.allocate(8).putLong(contents.length).array()).ok());
+                for (int offset = 0; offset < contents.length; offset += 100_000) {
+                    byte[] chunk = Arrays.copyOfRange(contents, offset, Math.min(contents.length, offset + 100_000));
+                    assertTrue(client.send(BinaryProtocol.WRITE_CHUNK, "big", chunk).ok());
+                }
+                assertTrue(client.send(BinaryProtocol.WRITE_END, "big").ok());
+
+                ByteBuffer range = ByteBuffer.allocate(12).putLong(500_000).putInt(1000);
+                BinaryClient.Reply reply = client.send(BinaryProtocol.READ_RANGE, "big", range.array());
+                assertArrayEquals(Arrays.copyOfRange(contents, 500_000, 501_000), reply.payload);
+            }
+            // A connection that goes away mid-upload publishes nothing and frees its blocks
+            try (BinaryClient client = new BinaryClient(NIO_PORT)) {
+                assertTrue(client.send(BinaryProtocol.WRITE_BEGIN, "big", ByteBuffer.allocate(8).putLong(900_000).array()).ok());
+                assertTrue(client.send(BinaryProtocol.WRITE_CHUNK, "big", new byte[1000]).ok());
+            }
+            try (BinaryClient client = new BinaryClient(NIO_PORT)) {
+                assertArrayEquals(contents, client.send(BinaryProtocol.READ, "big").payload);
+                assertTrue(client.send(BinaryProtocol.WRITE_BEGIN, "big", ByteBuffer.allocate(8).putLong(900_000).array()).ok());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
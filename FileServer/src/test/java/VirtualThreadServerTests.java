@@ -0,0 +1,88 @@
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.server.ConcurrencyLimiter;
+import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerMode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualThreadServerTests {
+
+    private static final int PORT = 12347;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testLimiterBoundsConcurrentOperations() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(3);
+        ExecutorService pool = Executors.newFixedThreadPool(20);
+        CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            pool.submit(() -> {
+                limiter.acquire();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    limiter.release();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(3, limiter.getPeakInFlight());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    @EnabledForJreRange(max = JRE.JAVA_20)
+    void testVirtualModeFailsAtConstructionBeforeJava21() {
+        String image = dir.resolve("unsupported.dat").toString();
+        UnsupportedOperationException e = assertThrows(UnsupportedOperationException.class,
+                () -> new FileServer(PORT, image, 10 * 128, new FileSystemConfig(), ServerMode.VIRTUAL));
+        assertTrue(e.getMessage().contains("Java 21"));
+        assertFalse(dir.resolve("unsupported.dat").toFile().exists()); // the image was never opened
+    }
+
+    @Test
+    @Timeout(60)
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void testIdleClientsBeyondThePoolCapAreServed() throws Exception {
+        ServerRunner server = new ServerRunner(PORT, "--mode=virtual", "--image=" + dir.resolve("virtual.dat"),
+                "--max-operations=8");
+        server.start();
+        // Thread-pool mode turns clients away after 500 threads plus 1000 queued connections
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                idle.add(new Socket("localhost", PORT));
+            }
+            assertTrue(ClientRunner.send(PORT, "CREATE v.txt").startsWith("SUCCESS"));
+            assertTrue(ClientRunner.send(PORT, "WRITE v.txt virtual").startsWith("SUCCESS"));
+            assertEquals("SUCCESS: virtual", ClientRunner.send(PORT, "READ v.txt"));
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+            server.stop();
+        }
+    }
+}
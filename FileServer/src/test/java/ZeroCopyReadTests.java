@@ -0,0 +1,78 @@
+import helpers.BinaryClient;
+import helpers.ServerRunner;
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.server.BinaryProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZeroCopyReadTests {
+
+    private static final int PORT = 12352;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testTransferSendsLargeExtentFilesOnly() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("fs.dat").toString(), 1024 * 1024,
+                new FileSystemConfig().setBlockSize(4096));
+        byte[] large = new byte[200 * 1024 + 17];
+        new Random(1).nextBytes(large);
+        fs.createFile("large");
+        fs.writeFile("large", large);
+        fs.createFile("small");
+        fs.writeFile("small", new byte[100]);
+
+        Path copy = dir.resolve("copy");
+        long[] announced = {-1};
+        try (FileChannel target = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            assertTrue(fs.transferFile("large", 64 * 1024, size -> {
+                announced[0] = size;
+                return target;
+            }));
+            assertFalse(fs.transferFile("small", 64 * 1024, size -> {
+                throw new AssertionError("nothing is sent for a small file");
+            }));
+        }
+        assertEquals(large.length, announced[0]);
+        assertArrayEquals(large, Files.readAllBytes(copy));
+        assertFalse(fs.transferFile("large", 64 * 1024, size -> null)); // declined, so read it the usual way
+        assertThrows(Exception.class, () -> fs.transferFile("missing", 0, size -> null));
+        fs.close();
+    }
+
+    @Test
+    @Timeout(30)
+    void testLargeBinaryReadsMatchWhatWasWritten() throws Exception {
+        ServerRunner server = new ServerRunner(PORT, "--image=" + dir.resolve("server.dat"),
+                "--block-size=4096", "--size=" + 2 * 1024 * 1024);
+        server.start();
+        byte[] large = new byte[512 * 1024];
+        new Random(2).nextBytes(large);
+        try (BinaryClient client = new BinaryClient(PORT)) {
+            assertTrue(client.send(BinaryProtocol.CREATE, "large").ok());
+            assertTrue(client.send(BinaryProtocol.CREATE, "small").ok());
+            assertTrue(client.send(BinaryProtocol.WRITE, "large", large).ok());
+            assertTrue(client.send(BinaryProtocol.WRITE, "small", new byte[]{4, 2}).ok());
+            for (int i = 0; i < 3; i++) {
+                BinaryClient.Reply reply = client.send(BinaryProtocol.READ, "large");
+                assertTrue(reply.ok());
+                assertArrayEquals(large, reply.payload);
+                assertArrayEquals(new byte[]{4, 2}, client.send(BinaryProtocol.READ, "small").payload);
+            }
+            assertEquals("File not found.", client.send(BinaryProtocol.READ, "missing").text());
+        } finally {
+            server.stop();
+        }
+    }
+}
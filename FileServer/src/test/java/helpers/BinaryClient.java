@@ -0,0 +1,78 @@
+package helpers;
+
+import ca.concordia.server.BinaryProtocol;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+// Speaks the binary protocol over one connection
+public class BinaryClient implements Closeable {
+
+    public static class Reply {
+        public final byte status;
+        public final byte[] payload;
+
+        Reply(byte status, byte[] payload) {
+            this.status = status;
+            this.payload = payload;
+        }
+
+        public boolean ok() {
+            return status == BinaryProtocol.OK;
+        }
+
+        public String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public BinaryClient(int port) throws IOException {
+        socket = new Socket("localhost", port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.write(BinaryProtocol.HANDSHAKE);
+    }
+
+    public Reply send(byte opcode, String name) throws IOException {
+        return send(opcode, name, new byte[0]);
+    }
+
+    public Reply send(byte opcode, String name, byte[] payload) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(opcode);
+        out.writeShort(nameBytes.length);
+        out.writeInt(payload.length);
+        out.write(nameBytes);
+        out.write(payload);
+        out.flush();
+        return receive();
+    }
+
+    public Reply receive() throws IOException {
+        byte status = in.readByte();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return new Reply(status, payload);
+    }
+
+    // Sends raw bytes, e.g. a malformed header
+    public void sendRaw(byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.flush();
+    }
+
+    // Next byte from the server, -1 once it has closed the connection
+    public int read() throws IOException {
+        return in.read();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -4,17 +4,38 @@ import java.io.*;
 import java.net.*;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class ServerRunner {
     private Process process;
+    private final int port;
+    private final String[] args;
+
+    public ServerRunner() {
+        this(12345);
+    }
+
+    // Extra arguments are passed to Main, e.g. "--mode=nio"
+    public ServerRunner(int port, String... args) {
+        this.port = port;
+        this.args = args;
+    }
 
     public void start() throws IOException, InterruptedException {
-        process = new ProcessBuilder("java", "-cp", "target/classes", "ca.concordia.Main")
+        List<String> command = new ArrayList<>(List.of("java", "-cp", "target/classes", "ca.concordia.Main"));
+        if (port != 12345) {
+            command.add("--port=" + port);
+        }
+        command.addAll(Arrays.asList(args));
+        process = new ProcessBuilder(command)
                 .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
                 .start();
         // Wait for port to become available (server ready)
         Instant start = Instant.now();
-        while (!isPortOpen("localhost", 12345)) {
+        while (!isPortOpen("localhost", port)) {
             if (Duration.between(start, Instant.now()).getSeconds() > 10)
                 throw new RuntimeException("Server failed to start within timeout");
             Thread.sleep(200);
@@ -0,0 +1,124 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.filesystem.datastructures.BlockBitmap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Block allocation as the image fills up, with the free space in one run ("contiguous") or
+// scattered in single blocks ("fragmented"). The bitmap benchmark isolates the search for a free
+// run; the rewrite benchmark is the whole copy-on-write path on such an image.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocatorBenchmark {
+
+    static final int RUN_BLOCKS = 8; // a 32 KB file
+
+    @State(Scope.Thread)
+    public static class Bitmap {
+        static final int BLOCKS = 1 << 20; // a 4 GB image of 4 KB blocks
+
+        @Param({"0", "50", "90", "99"})
+        public int fillPercent;
+
+        @Param({"contiguous", "fragmented"})
+        public String layout;
+
+        BlockBitmap bitmap;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            bitmap = new BlockBitmap(BLOCKS);
+            int used = (int) ((long) BLOCKS * fillPercent / 100);
+            if (layout.equals("contiguous")) {
+                for (int block = 0; block < used; block++) {
+                    bitmap.markUsed(block);
+                }
+                return;
+            }
+            Random random = new Random(42);
+            while (BLOCKS - bitmap.getFreeCount() < used) {
+                bitmap.markUsed(random.nextInt(BLOCKS));
+            }
+        }
+    }
+
+    // Claims a run and gives it back, so the fill level stays put
+    @Benchmark
+    public long bitmapAllocateRun(Bitmap state) {
+        long run = state.bitmap.allocateRun(RUN_BLOCKS);
+        int start = (int) (run >>> 32);
+        for (int block = start; block < start + (int) run; block++) {
+            state.bitmap.markFree(block);
+        }
+        return run;
+    }
+
+    @State(Scope.Benchmark)
+    public static class FilledImage extends FileSystemState {
+        static final int BLOCKS = 4096; // one single-block file each, so filling it stays quick
+
+        @Param({"0", "50", "90", "99"})
+        public int fillPercent;
+
+        @Param({"contiguous", "fragmented"})
+        public String layout;
+
+        byte[] probe;
+
+        @Setup(Level.Trial)
+        public void fill() throws Exception {
+            open((long) BLOCKS * BLOCK_SIZE, BLOCKS + 1);
+            probe = new byte[RUN_BLOCKS * BLOCK_SIZE];
+            fs.createFile("probe");
+            fs.writeFile("probe", probe);
+            // Fill with single-block files, then delete every file at random ("fragmented") or
+            // the most recent ones ("contiguous") until only the wanted share is in use
+            int reserved = 2 * RUN_BLOCKS; // both versions of the probe during a rewrite
+            List<String> names = new ArrayList<>();
+            byte[] block = new byte[BLOCK_SIZE];
+            for (int i = 0; i < BLOCKS - reserved; i++) {
+                String name = "b" + i;
+                fs.createFile(name);
+                fs.writeFile(name, block);
+                names.add(name);
+            }
+            int keep = (int) ((long) BLOCKS * fillPercent / 100);
+            if (layout.equals("fragmented")) {
+                Collections.shuffle(names, new Random(42));
+            }
+            for (int i = names.size() - 1; i >= Math.min(keep, names.size()); i--) {
+                fs.deleteFile(names.get(i));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            close();
+        }
+    }
+
+    @Benchmark
+    public void rewriteOnFilledImage(FilledImage image) throws Exception {
+        image.fs.writeFile("probe", image.probe);
+    }
+}
@@ -0,0 +1,57 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.server.CommandHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// One text-protocol line through CommandHandler, which every server mode's connection loop
+// (ClientTask included) hands each line to: parsing, dispatch, the filesystem call and the reply.
+// BADCOMMAND and the missing-argument line measure the parsing and error paths alone.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandHandlerBenchmark extends FileSystemState {
+
+    @Param({"LIST", "READ bench", "READ_RANGE bench 100 64", "WRITE bench hello world", "BADCOMMAND x", "CREATE"})
+    public String line;
+
+    private CommandHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        open(16L * 1024 * 1024, 256);
+        for (int i = 0; i < 100; i++) {
+            fs.createFile("file" + i); // something for LIST to join
+        }
+        fs.createFile("bench");
+        fs.writeFile("bench", "x".repeat(1024).getBytes(StandardCharsets.UTF_8));
+        handler = new CommandHandler(fs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        close();
+    }
+
+    @Benchmark
+    public String handle() {
+        return handler.handle(line);
+    }
+}
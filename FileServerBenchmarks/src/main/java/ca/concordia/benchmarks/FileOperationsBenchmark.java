@@ -0,0 +1,109 @@
+package ca.concordia.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// createFile/writeFile/readFile/deleteFile latency by file size. Each benchmark thread works on a
+// file of its own, so -t scales the load without the threads contending for one file lock; the
+// "shared" group has three readers and one writer on the same file instead.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileOperationsBenchmark extends FileSystemState {
+
+    private static final long IMAGE_BYTES = 512L * 1024 * 1024; // room for both versions of 1 MB files on 100+ threads
+
+    @Param({"128", "4096", "65536", "1048576"})
+    public int fileSize;
+
+    private final AtomicInteger fileIds = new AtomicInteger();
+    private byte[] sharedData;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        open(IMAGE_BYTES, 4096);
+        sharedData = contents(fileSize, 0);
+        fs.createFile("shared");
+        fs.writeFile("shared", sharedData);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        close();
+    }
+
+    static byte[] contents(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadFile {
+        String name;
+        String scratch; // created and deleted by createWriteDelete
+        byte[] data;
+
+        @Setup(Level.Trial)
+        public void setUp(FileOperationsBenchmark benchmark) throws Exception {
+            int id = benchmark.fileIds.incrementAndGet();
+            name = "f" + id;
+            scratch = "s" + id;
+            data = contents(benchmark.fileSize, id);
+            benchmark.fs.createFile(name);
+            benchmark.fs.writeFile(name, data);
+        }
+    }
+
+    @Benchmark
+    public void writeFile(ThreadFile file) throws Exception {
+        fs.writeFile(file.name, file.data);
+    }
+
+    @Benchmark
+    public byte[] readFile(ThreadFile file) throws Exception {
+        return fs.readFile(file.name);
+    }
+
+    @Benchmark
+    public void createWriteDelete(ThreadFile file) throws Exception {
+        fs.createFile(file.scratch);
+        fs.writeFile(file.scratch, file.data);
+        fs.deleteFile(file.scratch);
+    }
+
+    // Copy-on-write lets the readers carry on while the writer's data is being written and synced
+    @Benchmark
+    @Group("shared")
+    @GroupThreads(3)
+    public byte[] sharedRead() throws Exception {
+        return fs.readFile("shared");
+    }
+
+    @Benchmark
+    @Group("shared")
+    @GroupThreads(1)
+    public void sharedWrite() throws Exception {
+        fs.writeFile("shared", sharedData);
+    }
+}
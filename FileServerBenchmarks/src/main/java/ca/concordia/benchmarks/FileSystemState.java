@@ -0,0 +1,63 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.filesystem.FileSystemConfig;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.storage.StorageBackend;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// A fresh image in a temporary directory for each trial, on every storage backend and sync policy:
+//   journal       write-ahead journal, each commit synced as soon as it is requested
+//   group-commit  journal whose commits wait 1 ms for others to share their fsync
+//   image-sync    no journal, the image itself is synced on every commit
+@State(Scope.Benchmark)
+public abstract class FileSystemState {
+
+    static final int BLOCK_SIZE = 4096;
+
+    @Param({"CHANNEL", "MAPPED"})
+    public String backend;
+
+    @Param({"journal", "group-commit", "image-sync"})
+    public String sync;
+
+    protected FileSystemManager fs;
+    private Path dir;
+
+    protected void open(long dataBytes, int maxFiles) throws IOException {
+        FileSystemConfig config = new FileSystemConfig()
+                .setBackend(StorageBackend.valueOf(backend))
+                .setBlockSize(BLOCK_SIZE)
+                .setMaxFiles(maxFiles);
+        switch (sync) {
+            case "journal":
+                break;
+            case "group-commit":
+                config.setCommitIntervalMillis(1);
+                break;
+            case "image-sync":
+                config.setJournal(false);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown sync policy " + sync);
+        }
+        dir = Files.createTempDirectory("fs-bench");
+        fs = new FileSystemManager(dir.resolve("bench.dat").toString(), dataBytes, config);
+    }
+
+    protected void close() throws IOException {
+        fs.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}